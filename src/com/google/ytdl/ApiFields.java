@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.util.Log;
+
+import com.google.api.client.util.GenericData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Partial response selectors, the fields parameter, of the YouTube Data API requests the
+ * app makes. Each selector asks for exactly the fields the code reading the response
+ * uses, which keeps responses small on slow networks and makes parsing them cheaper.
+ * <p/>
+ * A field missing from a selector silently comes back as null. In debug builds,
+ * {@link #check} logs the fields a parsed response lacks, so a selector that got out of
+ * sync with the code is noticed right away.
+ * <p/>
+ * See https://developers.google.com/youtube/v3/getting-started#partial
+ */
+public final class ApiFields {
+    private static final String TAG = "ApiFields";
+
+    /**
+     * channels.list(mine=true): what {@link ChannelMetadataCache.ChannelMetadata} keeps.
+     */
+    public static final String CHANNEL_METADATA =
+            "items(id,snippet/title,contentDetails/relatedPlaylists/uploads)";
+    public static final String[] CHANNEL_METADATA_REQUIRED = {
+            "id", "contentDetails/relatedPlaylists/uploads"};
+
+    /**
+     * playlistItems.list of the uploads playlist: the video ids of a page.
+     */
+    public static final String UPLOADS_PAGE = "nextPageToken,items/contentDetails/videoId";
+    public static final String[] UPLOADS_PAGE_REQUIRED = {"contentDetails/videoId"};
+
+    /**
+     * videos.list of a page of uploads: what the uploads list shows, sorts, searches and
+     * filters on.
+     */
+    public static final String UPLOADS_VIDEOS = "items(id,snippet(title,publishedAt,tags,"
+            + "thumbnails/default/url),statistics/viewCount,status/privacyStatus)";
+    public static final String[] UPLOADS_VIDEOS_REQUIRED = {
+            "id", "snippet/title", "snippet/publishedAt", "status/privacyStatus"};
+
+    /**
+     * videos.list of a video about to be updated: videos.update replaces the whole snippet, so
+     * every writable snippet field has to be read first.
+     */
+    public static final String VIDEO_SNIPPET =
+            "items(id,snippet(title,description,categoryId,tags))";
+    public static final String[] VIDEO_SNIPPET_REQUIRED = {
+            "id", "snippet/title", "snippet/categoryId"};
+
+    /**
+     * videos.list polled by {@link ProcessingTracker}.
+     */
+    public static final String PROCESSING_DETAILS =
+            "items(id,processingDetails(processingStatus,processingProgress/timeLeftMs))";
+    public static final String[] PROCESSING_DETAILS_REQUIRED = {
+            "id", "processingDetails/processingStatus"};
+
+    /**
+     * videos.insert and videos.update: only the id of the written video is read.
+     */
+    public static final String VIDEO_ID = "id";
+
+    private ApiFields() {
+    }
+
+    /**
+     * @param paths fields that must be set, nested fields separated by '/'
+     * @return the given fields that aren't set in the given resource
+     */
+    public static List<String> findMissing(GenericData resource, String... paths) {
+        List<String> missing = new ArrayList<String>();
+        for (String path : paths) {
+            Object value = resource;
+            for (String name : path.split("/")) {
+                value = value instanceof GenericData ? ((GenericData) value).get(name) : null;
+            }
+            if (value == null) {
+                missing.add(path);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * In debug builds, logs the given fields that aren't set in the given resources.
+     *
+     * @param selector the selector the resources were requested with
+     */
+    public static void check(String selector, List<? extends GenericData> resources,
+                             String... paths) {
+        if (!BuildConfig.DEBUG || resources == null) {
+            return;
+        }
+        for (GenericData resource : resources) {
+            List<String> missing = findMissing(resource, paths);
+            if (!missing.isEmpty()) {
+                Log.w(TAG, String.format("Fields %s missing with fields=%s in %s", missing,
+                        selector, resource));
+            }
+        }
+    }
+}
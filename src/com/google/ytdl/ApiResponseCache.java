@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.youtube.YouTubeRequest;
+import com.google.ytdl.util.DiskLruCache;
+import com.google.ytdl.util.ImageCache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Makes YouTube Data API list requests conditional. The ETag of each response is kept
+ * with the response and sent as If-None-Match the next time the same request is made; if
+ * the server answers 304 Not Modified the kept response is returned, without downloading
+ * or parsing a body.
+ * <p/>
+ * Parsed responses are kept in memory, their JSON on disk so they survive a restart. The
+ * returned responses are shared between callers and must not be modified.
+ */
+public class ApiResponseCache {
+    private static final String TAG = "ApiResponseCache";
+    private static final String DISK_CACHE_DIR = "api_responses";
+    private static final int DISK_CACHE_SIZE = 2 * 1024 * 1024; // 2MB
+    private static final int MEM_CACHE_ENTRIES = 64;
+    private static final int APP_VERSION = 1;
+    private static final int VALUE_ETAG = 0;
+    private static final int VALUE_JSON = 1;
+
+    private static ApiResponseCache sInstance;
+
+    private static class Entry {
+        final String etag;
+        final Object response;
+
+        Entry(String etag, Object response) {
+            this.etag = etag;
+            this.response = response;
+        }
+    }
+
+    private final File mDiskCacheDir;
+    private final LruCache<String, Entry> mMemoryCache =
+            new LruCache<String, Entry>(MEM_CACHE_ENTRIES);
+    private final Object mDiskCacheLock = new Object();
+    private DiskLruCache mDiskCache;
+    private int mRequests;
+    private int mNotModified;
+
+    public static synchronized ApiResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ApiResponseCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ApiResponseCache(Context context) {
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+    }
+
+    /**
+     * Executes the request, conditionally if a response to the same request was kept.
+     *
+     * @param accountName account the request is authorized as; responses of requests like
+     *                    channels.list(mine=true) depend on it
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String accountName, YouTubeRequest<T> request) throws IOException {
+        String key = ImageCache.hashKeyForDisk(accountName + " " + request.buildHttpRequestUrl());
+        JsonFactory jsonFactory = request.getAbstractGoogleClient().getJsonFactory();
+        Entry entry = get(key, request.getResponseClass(), jsonFactory);
+        if (entry != null) {
+            request.getRequestHeaders().setIfNoneMatch(entry.etag);
+        }
+        synchronized (this) {
+            mRequests++;
+        }
+
+        T response;
+        try {
+            response = request.execute();
+        } catch (HttpResponseException e) {
+            if (entry != null && e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+                synchronized (this) {
+                    mNotModified++;
+                }
+                return (T) entry.response;
+            }
+            throw e;
+        }
+
+        HttpHeaders headers = request.getLastResponseHeaders();
+        String etag = headers == null ? null : headers.getETag();
+        if (etag != null && response != null) {
+            put(key, new Entry(etag, response), jsonFactory);
+        }
+        return response;
+    }
+
+    /**
+     * @return how many of the requests made through this cache were answered with 304 Not
+     *         Modified
+     */
+    public synchronized String getStats() {
+        return String.format("requests=%d, notModified=%d", mRequests, mNotModified);
+    }
+
+    private Entry get(String key, Class<?> responseClass, JsonFactory jsonFactory) {
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        synchronized (mDiskCacheLock) {
+            DiskLruCache diskCache = getDiskCache();
+            if (diskCache == null) {
+                return null;
+            }
+            DiskLruCache.Snapshot snapshot = null;
+            try {
+                snapshot = diskCache.get(key);
+                if (snapshot == null) {
+                    return null;
+                }
+                entry = new Entry(snapshot.getString(VALUE_ETAG),
+                        jsonFactory.fromString(snapshot.getString(VALUE_JSON), responseClass));
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading a cached response", e);
+                return null;
+            } finally {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
+            }
+        }
+        mMemoryCache.put(key, entry);
+        return entry;
+    }
+
+    private void put(String key, Entry entry, JsonFactory jsonFactory) {
+        mMemoryCache.put(key, entry);
+        synchronized (mDiskCacheLock) {
+            DiskLruCache diskCache = getDiskCache();
+            if (diskCache == null) {
+                return;
+            }
+            DiskLruCache.Editor editor = null;
+            try {
+                editor = diskCache.edit(key);
+                if (editor == null) {
+                    // Being written by another request
+                    return;
+                }
+                editor.set(VALUE_ETAG, entry.etag);
+                editor.set(VALUE_JSON, jsonFactory.toString(entry.response));
+                editor.commit();
+                editor = null;
+            } catch (IOException e) {
+                Log.e(TAG, "Error caching a response", e);
+            } finally {
+                if (editor != null) {
+                    // Releases the entry, or it stays locked for every later edit
+                    try {
+                        editor.abort();
+                    } catch (IOException e) {
+                        // ignore
+                    } catch (IllegalStateException e) {
+                        // The failed commit released it already
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the disk cache on first use; called with the lock held.
+     */
+    private DiskLruCache getDiskCache() {
+        if (mDiskCache == null || mDiskCache.isClosed()) {
+            try {
+                mDiskCache = DiskLruCache.open(mDiskCacheDir, APP_VERSION, 2, DISK_CACHE_SIZE);
+            } catch (IOException e) {
+                Log.e(TAG, "Error opening the response cache", e);
+                mDiskCache = null;
+            }
+        }
+        return mDiskCache;
+    }
+}
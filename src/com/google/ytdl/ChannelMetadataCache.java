@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.api.services.youtube.model.Channel;
+
+/**
+ * Remembers the channel properties of the chosen account that don't change, most
+ * importantly the id of its uploads playlist, so loading the uploads list doesn't have to
+ * start with a channels.list request.
+ * <p/>
+ * Only the properties of one account are kept; they are dropped as soon as another
+ * account is chosen.
+ */
+public class ChannelMetadataCache {
+    private static final String PREFS_NAME = "channel_metadata";
+    private static final String KEY_ACCOUNT = "account";
+    private static final String KEY_CHANNEL_ID = "channelId";
+    private static final String KEY_CHANNEL_TITLE = "channelTitle";
+    private static final String KEY_UPLOADS_PLAYLIST_ID = "uploadsPlaylistId";
+
+    private static ChannelMetadataCache sInstance;
+
+    /**
+     * Stable properties of the channel of an account.
+     */
+    public static class ChannelMetadata {
+        public final String channelId;
+        public final String channelTitle;
+        public final String uploadsPlaylistId;
+
+        public ChannelMetadata(String channelId, String channelTitle, String uploadsPlaylistId) {
+            this.channelId = channelId;
+            this.channelTitle = channelTitle;
+            this.uploadsPlaylistId = uploadsPlaylistId;
+        }
+
+        /**
+         * @param channel a channel listed with the id, snippet and contentDetails parts
+         */
+        public static ChannelMetadata fromChannel(Channel channel) {
+            return new ChannelMetadata(channel.getId(),
+                    channel.getSnippet() == null ? null : channel.getSnippet().getTitle(),
+                    channel.getContentDetails().getRelatedPlaylists().getUploads());
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    public static synchronized ChannelMetadataCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ChannelMetadataCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ChannelMetadataCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the remembered properties of the given account's channel, or null if another
+     *         account or nothing was remembered
+     */
+    public synchronized ChannelMetadata get(String accountName) {
+        if (accountName == null || !accountName.equals(mPrefs.getString(KEY_ACCOUNT, null))) {
+            return null;
+        }
+        String uploadsPlaylistId = mPrefs.getString(KEY_UPLOADS_PLAYLIST_ID, null);
+        if (uploadsPlaylistId == null) {
+            return null;
+        }
+        return new ChannelMetadata(mPrefs.getString(KEY_CHANNEL_ID, null),
+                mPrefs.getString(KEY_CHANNEL_TITLE, null), uploadsPlaylistId);
+    }
+
+    /**
+     * Remembers the properties of the given account's channel, replacing those of any other
+     * account.
+     */
+    public synchronized void put(String accountName, ChannelMetadata metadata) {
+        mPrefs.edit()
+                .putString(KEY_ACCOUNT, accountName)
+                .putString(KEY_CHANNEL_ID, metadata.channelId)
+                .putString(KEY_CHANNEL_TITLE, metadata.channelTitle)
+                .putString(KEY_UPLOADS_PLAYLIST_ID, metadata.uploadsPlaylistId)
+                .apply();
+    }
+
+    /**
+     * Forgets the remembered properties, e.g. when another account is chosen or they turned out
+     * to be stale.
+     */
+    public synchronized void invalidate() {
+        mPrefs.edit().clear().apply();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the chunk size of resumable uploads from the throughput and error rate measured
+ * on the current network type. A chunk should take about {@link #TARGET_CHUNK_MILLIS} to
+ * send: on fast links that keeps per-chunk round trips negligible, on flaky links it
+ * limits how much data a failed chunk throws away.
+ * <p/>
+ * State is kept per network type for the lifetime of the process, so the next upload on
+ * the same kind of network starts with the size the previous one settled on.
+ */
+public class ChunkSizeController {
+    private static final String TAG = "ChunkSizeController";
+
+    /**
+     * Chunk sizes must be multiples of this.
+     */
+    public static final int CHUNK_SIZE_UNIT = MediaHttpUploader.MINIMUM_CHUNK_SIZE;
+    public static final int DEFAULT_MIN_CHUNK_SIZE = CHUNK_SIZE_UNIT; // 256KB
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 64 * CHUNK_SIZE_UNIT; // 16MB
+    /**
+     * How long sending a single chunk should take.
+     */
+    public static final long TARGET_CHUNK_MILLIS = 5000;
+
+    /**
+     * Measurements and chosen chunk size of a single network type.
+     */
+    public static class NetworkStats {
+        public final String networkType;
+        private int mChunkSize;
+        private long mBytesSent;
+        private long mMillisSending;
+        private int mChunks;
+        private int mFailures;
+
+        private NetworkStats(String networkType, int chunkSize) {
+            this.networkType = networkType;
+            mChunkSize = chunkSize;
+        }
+
+        public synchronized int getChunkSize() {
+            return mChunkSize;
+        }
+
+        public synchronized int getChunks() {
+            return mChunks;
+        }
+
+        public synchronized int getFailures() {
+            return mFailures;
+        }
+
+        /**
+         * @return average throughput of the chunks sent on this network type, in bytes per second
+         */
+        public synchronized long getBytesPerSecond() {
+            return mMillisSending == 0 ? 0 : mBytesSent * 1000 / mMillisSending;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: chunkSize=%d, chunks=%d, failures=%d, bytesPerSecond=%d",
+                    networkType, mChunkSize, mChunks, mFailures, getBytesPerSecond());
+        }
+    }
+
+    private static final Map<String, NetworkStats> sStats = new HashMap<String, NetworkStats>();
+
+    private final NetworkStats mStats;
+    private final int mMinChunkSize;
+    private final int mMaxChunkSize;
+
+    /**
+     * @return a controller for the network the device is currently connected to, bounded by
+     *         {@link #DEFAULT_MIN_CHUNK_SIZE} and {@link #DEFAULT_MAX_CHUNK_SIZE}
+     */
+    public static ChunkSizeController forActiveNetwork(Context context) {
+        return forActiveNetwork(context, DEFAULT_MIN_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * @param minChunkSize smallest chunk size to use, a multiple of {@link #CHUNK_SIZE_UNIT}
+     * @param maxChunkSize largest chunk size to use, a multiple of {@link #CHUNK_SIZE_UNIT}
+     */
+    public static ChunkSizeController forActiveNetwork(Context context, int minChunkSize,
+                                                       int maxChunkSize) {
+        if (minChunkSize <= 0 || minChunkSize % CHUNK_SIZE_UNIT != 0
+                || maxChunkSize % CHUNK_SIZE_UNIT != 0 || maxChunkSize < minChunkSize) {
+            throw new IllegalArgumentException("Chunk size bounds must be ordered multiples of "
+                    + CHUNK_SIZE_UNIT);
+        }
+        String networkType = getNetworkType(context);
+        NetworkStats stats;
+        synchronized (sStats) {
+            stats = sStats.get(networkType);
+            if (stats == null) {
+                stats = new NetworkStats(networkType,
+                        clamp(MediaHttpUploader.DEFAULT_CHUNK_SIZE, minChunkSize, maxChunkSize));
+                sStats.put(networkType, stats);
+            }
+        }
+        return new ChunkSizeController(stats, minChunkSize, maxChunkSize);
+    }
+
+    /**
+     * @return a snapshot of the measurements of every network type seen so far
+     */
+    public static Map<String, NetworkStats> getStats() {
+        synchronized (sStats) {
+            return new HashMap<String, NetworkStats>(sStats);
+        }
+    }
+
+    private ChunkSizeController(NetworkStats stats, int minChunkSize, int maxChunkSize) {
+        mStats = stats;
+        mMinChunkSize = minChunkSize;
+        mMaxChunkSize = maxChunkSize;
+    }
+
+    public int getChunkSize() {
+        return clamp(mStats.getChunkSize(), mMinChunkSize, mMaxChunkSize);
+    }
+
+    /**
+     * Records a chunk the server acknowledged and adjusts the chunk size towards the size that
+     * would take {@link #TARGET_CHUNK_MILLIS} at the measured throughput. The size changes by at
+     * most a factor of two per chunk.
+     */
+    public void onChunkCompleted(long bytes, long elapsedMillis) {
+        synchronized (mStats) {
+            mStats.mChunks++;
+            mStats.mBytesSent += bytes;
+            mStats.mMillisSending += elapsedMillis;
+            long ideal = elapsedMillis == 0 ? Long.MAX_VALUE
+                    : bytes * TARGET_CHUNK_MILLIS / elapsedMillis;
+            long next = Math.max(mStats.mChunkSize / 2, Math.min(ideal, 2L * mStats.mChunkSize));
+            mStats.mChunkSize = clamp(next, mMinChunkSize, mMaxChunkSize);
+        }
+        Log.d(TAG, mStats.toString());
+    }
+
+    /**
+     * Records a chunk that failed and halves the chunk size.
+     */
+    public void onChunkFailed() {
+        synchronized (mStats) {
+            mStats.mFailures++;
+            mStats.mChunkSize = clamp(mStats.mChunkSize / 2, mMinChunkSize, mMaxChunkSize);
+        }
+        Log.d(TAG, mStats.toString());
+    }
+
+    private static int clamp(long chunkSize, int minChunkSize, int maxChunkSize) {
+        long rounded = chunkSize / CHUNK_SIZE_UNIT * CHUNK_SIZE_UNIT;
+        return (int) Math.max(minChunkSize, Math.min(maxChunkSize, rounded));
+    }
+
+    /**
+     * @return the type of the active network, including the subtype for mobile networks
+     */
+    static String getNetworkType(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+        if (networkInfo == null) {
+            return "NONE";
+        }
+        if (networkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
+            return networkInfo.getTypeName() + "/" + networkInfo.getSubtypeName();
+        }
+        return networkInfo.getTypeName();
+    }
+}
@@ -26,4 +26,7 @@ public class Constants {
     // playlist ID for the app to work
     public static final String UPLOAD_PLAYLIST = "Replace me with the playlist ID you want to upload into";
     public static final String APP_NAME = "ytd-android";
+    // Number of uploads UploadService runs in parallel. Raise it on fast uplinks, lower it if
+    // concurrent uploads starve each other on slow cellular connections.
+    public static final int MAX_CONCURRENT_UPLOADS = 3;
 }
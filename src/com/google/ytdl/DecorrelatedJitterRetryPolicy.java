@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAuthIOException;
+import com.google.api.client.googleapis.extensions.android.gms.auth.UserRecoverableAuthIOException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Default {@link UploadRetryPolicy}.
+ * <p/>
+ * Server errors (5xx), request timeouts and transport errors such as connection resets are
+ * retried. Authorization errors, quota errors and every other 4xx response are fatal,
+ * sending the same request again would fail the same way.
+ * <p/>
+ * Back-off is exponential with decorrelated jitter: each wait is picked at random between
+ * the base and three times the previous wait, capped at the maximum. Concurrent uploads
+ * that failed together don't retry in lock step.
+ */
+public class DecorrelatedJitterRetryPolicy implements UploadRetryPolicy {
+    public static final long DEFAULT_BASE_MILLIS = 1000;
+    public static final long DEFAULT_MAX_MILLIS = 60 * 1000;
+    /**
+     * How many times in a row a request may fail before giving up.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    private static final int STATUS_CODE_REQUEST_TIMEOUT = 408;
+    private static final int STATUS_CODE_TOO_MANY_REQUESTS = 429;
+
+    private final long mBaseMillis;
+    private final long mMaxMillis;
+    private final int mMaxAttempts;
+    private final Random mRandom = new Random();
+    private long mLastBackOffMillis;
+    private int mAttempts;
+
+    public DecorrelatedJitterRetryPolicy() {
+        this(DEFAULT_BASE_MILLIS, DEFAULT_MAX_MILLIS, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param baseMillis  shortest wait
+     * @param maxMillis   longest wait
+     * @param maxAttempts number of consecutive failures after which to give up
+     */
+    public DecorrelatedJitterRetryPolicy(long baseMillis, long maxMillis, int maxAttempts) {
+        if (baseMillis <= 0 || maxMillis < baseMillis || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Invalid back-off bounds");
+        }
+        mBaseMillis = baseMillis;
+        mMaxMillis = maxMillis;
+        mMaxAttempts = maxAttempts;
+        mLastBackOffMillis = baseMillis;
+    }
+
+    @Override
+    public boolean isRetryable(IOException e) {
+        if (e instanceof GoogleAuthIOException || e instanceof UserRecoverableAuthIOException) {
+            return false;
+        }
+        if (e instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) e).getStatusCode();
+            // 429 is short term rate limiting; exhausted quota is reported as 403.
+            return statusCode >= HttpStatusCodes.STATUS_CODE_SERVER_ERROR
+                    || statusCode == STATUS_CODE_REQUEST_TIMEOUT
+                    || statusCode == STATUS_CODE_TOO_MANY_REQUESTS;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            // The upload thread was interrupted, it is being cancelled.
+            return false;
+        }
+        // Connection resets, timeouts, unknown hosts and other transport errors.
+        return true;
+    }
+
+    @Override
+    public synchronized long nextBackOffMillis(IOException e) {
+        if (!isRetryable(e) || ++mAttempts > mMaxAttempts) {
+            return STOP;
+        }
+        long upper = Math.min(mMaxMillis, mLastBackOffMillis * 3);
+        long backOffMillis = mBaseMillis + (long) (mRandom.nextDouble() * (upper - mBaseMillis));
+        mLastBackOffMillis = backOffMillis;
+        return backOffMillis;
+    }
+
+    @Override
+    public synchronized void reset() {
+        mAttempts = 0;
+        mLastBackOffMillis = mBaseMillis;
+    }
+}
@@ -17,9 +17,9 @@ package com.google.ytdl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import android.accounts.AccountManager;
 import android.app.Activity;
 import android.app.Dialog;
@@ -34,7 +34,6 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.provider.MediaStore;
 import android.support.v4.content.LocalBroadcastManager;
-import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -45,28 +44,25 @@ import android.view.Window;
 import android.widget.ArrayAdapter;
 import android.widget.ListAdapter;
 import android.widget.ListView;
+import android.widget.SearchView;
 import android.widget.TextView;
 import android.widget.Toast;
 import com.google.android.gms.common.GooglePlayServicesUtil;
-import com.google.api.client.extensions.android.http.AndroidHttp;
 import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
 import com.google.api.client.googleapis.extensions.android.gms.auth.GooglePlayServicesAvailabilityIOException;
 import com.google.api.client.googleapis.extensions.android.gms.auth.UserRecoverableAuthIOException;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.client.util.ExponentialBackOff;
 import com.google.api.services.youtube.YouTube;
-import com.google.api.services.youtube.model.ChannelListResponse;
-import com.google.api.services.youtube.model.PlaylistItem;
-import com.google.api.services.youtube.model.PlaylistItemListResponse;
 import com.google.api.services.youtube.model.Video;
 import com.google.api.services.youtube.model.VideoListResponse;
 import com.google.api.services.youtube.model.VideoSnippet;
+import com.google.ytdl.UploadsLoader.UploadsPage;
 import com.google.ytdl.util.ImageFetcher;
+import com.google.ytdl.util.SortedVideoList;
 import com.google.ytdl.util.Upload;
 import com.google.ytdl.util.Utils;
 import com.google.ytdl.util.VideoData;
+import com.google.ytdl.util.VideoSearchIndex;
 
 /**
  * @author Ibrahim Ulukaya <ulukaya@google.com>
@@ -84,10 +80,15 @@ public class MainActivity extends Activity implements
 	private static final int REQUEST_DIRECT_TAG = 6;
 	// private static final int MEDIA_TYPE_VIDEO = 7;
 	public static final String ACCOUNT_KEY = "accountName";
+	private static final String SORT_ORDER_KEY = "sortOrder";
 	public static final String MESSAGE_KEY = "message";
 	public static final String YOUTUBE_ID = "youtubeId";
 	public static final String YOUTUBE_WATCH_URL_PREFIX = "http://www.youtube.com/watch?v=";
 	private static final String TAG = "MainActivity";
+	/**
+	 * Playlist pages loaded ahead when scrolling near the end of the list
+	 */
+	private static final int PAGES_PER_LOAD = 4;
 
 	static final String REQUEST_AUTHORIZATION_INTENT = "com.google.example.yt.RequestAuth";
 	static final String REQUEST_AUTHORIZATION_INTENT_PARAM = "com.google.example.yt.RequestAuth.param";
@@ -103,9 +104,32 @@ public class MainActivity extends Activity implements
 
 	private UploadsListFragment mUploadsListFragment;
 
+	/**
+	 * Videos of the uploads playlist loaded so far, in the chosen order. Starts
+	 * with the cached list of {@link #mVideosAccount}.
+	 */
+	private final SortedVideoList mVideos = new SortedVideoList(
+			SortedVideoList.Order.TITLE);
+	private String mVideosAccount;
+	/**
+	 * Titles and tags of {@link #mVideos}, kept in step with it
+	 */
+	private final VideoSearchIndex mSearchIndex = new VideoSearchIndex();
+	/**
+	 * Text typed in the search view, filters the shown videos
+	 */
+	private String mQuery;
+	/**
+	 * Ids of the videos found on the pages loaded since the last reload
+	 */
+	private final Set<String> mSeenIds = new HashSet<String>();
+	private String mUploadsPlaylistId;
+	private String mNextPageToken;
+	private boolean mPageLoading;
+	private boolean mPageFailed;
+	private int mPageGeneration;
+
 	GoogleAccountCredential credential;
-	final HttpTransport transport = AndroidHttp.newCompatibleTransport();
-	final JsonFactory jsonFactory = new GsonFactory();
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -136,6 +160,11 @@ public class MainActivity extends Activity implements
 
 			mUploadsListFragment = (UploadsListFragment) getFragmentManager()
 					.findFragmentById(R.id.list_fragment);
+
+			// Show the last known uploads right away, the network
+			// reconciles them once the user is signed in.
+			loadSortOrder();
+			showCachedVideos();
 		}
 	}
 
@@ -269,6 +298,29 @@ public class MainActivity extends Activity implements
 		sp.edit().putString(ACCOUNT_KEY, mChosenAccountName).commit();
 	}
 
+	private void loadSortOrder() {
+		SharedPreferences sp = PreferenceManager
+				.getDefaultSharedPreferences(this);
+		try {
+			mVideos.setOrder(SortedVideoList.Order.valueOf(sp.getString(
+					SORT_ORDER_KEY, SortedVideoList.Order.TITLE.name())));
+		} catch (IllegalArgumentException e) {
+			// Saved by another version of the app
+		}
+	}
+
+	/**
+	 * Shows the loaded videos in the given order, without loading them again.
+	 */
+	private void setSortOrder(SortedVideoList.Order order) {
+		if (mVideos.setOrder(order) && mUploadsListFragment != null) {
+			showVideos();
+		}
+		invalidateOptionsMenu();
+		PreferenceManager.getDefaultSharedPreferences(this).edit()
+				.putString(SORT_ORDER_KEY, order.name()).commit();
+	}
+
 	private void loadData() {
 		if (mChosenAccountName == null) {
 			return;
@@ -293,9 +345,50 @@ public class MainActivity extends Activity implements
 	public boolean onCreateOptionsMenu(Menu menu) {
 		super.onCreateOptionsMenu(menu);
 		getMenuInflater().inflate(R.menu.activity_main, menu);
+		SearchView searchView = (SearchView) menu.findItem(R.id.menu_search)
+				.getActionView();
+		searchView.setQueryHint(getString(R.string.search_hint));
+		if (mQuery != null) {
+			searchView.setQuery(mQuery, false);
+		}
+		// The loaded videos are filtered as the query is typed, no request is
+		// made.
+		searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+			@Override
+			public boolean onQueryTextSubmit(String query) {
+				setQuery(query);
+				return true;
+			}
+
+			@Override
+			public boolean onQueryTextChange(String newText) {
+				setQuery(newText);
+				return true;
+			}
+		});
 		return super.onCreateOptionsMenu(menu);
 	}
 
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		MenuItem sortItem;
+		switch (mVideos.getOrder()) {
+		case NEWEST_FIRST:
+			sortItem = menu.findItem(R.id.menu_sort_newest);
+			break;
+		case MOST_VIEWED:
+			sortItem = menu.findItem(R.id.menu_sort_views);
+			break;
+		default:
+			sortItem = menu.findItem(R.id.menu_sort_title);
+			break;
+		}
+		if (sortItem != null) {
+			sortItem.setChecked(true);
+		}
+		return super.onPrepareOptionsMenu(menu);
+	}
+
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
 		switch (item.getItemId()) {
@@ -305,6 +398,15 @@ public class MainActivity extends Activity implements
 		case R.id.menu_accounts:
 			chooseAccount();
 			return true;
+		case R.id.menu_sort_title:
+			setSortOrder(SortedVideoList.Order.TITLE);
+			return true;
+		case R.id.menu_sort_newest:
+			setSortOrder(SortedVideoList.Order.NEWEST_FIRST);
+			return true;
+		case R.id.menu_sort_views:
+			setSortOrder(SortedVideoList.Order.MOST_VIEWED);
+			return true;
 		}
 		return super.onOptionsItemSelected(item);
 	}
@@ -354,9 +456,13 @@ public class MainActivity extends Activity implements
 				String accountName = data.getExtras().getString(
 						AccountManager.KEY_ACCOUNT_NAME);
 				if (accountName != null) {
+					if (!accountName.equals(mChosenAccountName)) {
+						ChannelMetadataCache.getInstance(this).invalidate();
+					}
 					mChosenAccountName = accountName;
 					credential.setSelectedAccountName(accountName);
 					saveAccount();
+					showCachedVideos();
 				}
 			}
 			break;
@@ -373,23 +479,38 @@ public class MainActivity extends Activity implements
 	}
 
 	private void directTag(final VideoData video) {
-		final Video updateVideo = new Video();
-		VideoSnippet snippet = video
-				.addTags(Arrays.asList(
-						Constants.DEFAULT_KEYWORD,
-						Upload.generateKeywordFromPlaylistId(Constants.UPLOAD_PLAYLIST)));
-		updateVideo.setSnippet(snippet);
-		updateVideo.setId(video.getYouTubeId());
-
+		final String youtubeId = video.getYouTubeId();
+		final YouTube youtube = YouTubeClientFactory.getInstance(this)
+				.getYouTube(mChosenAccountName);
 		new AsyncTask<Void, Void, Void>() {
 			@Override
 			protected Void doInBackground(Void... voids) {
-
-				YouTube youtube = new YouTube.Builder(transport, jsonFactory,
-						credential).setApplicationName(Constants.APP_NAME)
-						.build();
 				try {
-					youtube.videos().update("snippet", updateVideo).execute();
+					// The uploads list only loads the title, but the update
+					// replaces the whole snippet, so read all of it first.
+					VideoListResponse vlr = youtube.videos().list("snippet")
+							.setId(youtubeId).setFields(ApiFields.VIDEO_SNIPPET)
+							.execute();
+					ApiFields.check(ApiFields.VIDEO_SNIPPET, vlr.getItems(),
+							ApiFields.VIDEO_SNIPPET_REQUIRED);
+					if (vlr.getItems() == null || vlr.getItems().isEmpty()) {
+						return null;
+					}
+					VideoSnippet snippet = vlr.getItems().get(0).getSnippet();
+					List<String> tags = snippet.getTags();
+					if (tags == null) {
+						tags = new ArrayList<String>(2);
+						snippet.setTags(tags);
+					}
+					tags.addAll(Arrays.asList(
+							Constants.DEFAULT_KEYWORD,
+							Upload.generateKeywordFromPlaylistId(Constants.UPLOAD_PLAYLIST)));
+
+					Video updateVideo = new Video();
+					updateVideo.setSnippet(snippet);
+					updateVideo.setId(youtubeId);
+					youtube.videos().update("snippet", updateVideo)
+							.setFields(ApiFields.VIDEO_ID).execute();
 				} catch (IOException e) {
 					Log.e(TAG, e.getMessage());
 				}
@@ -408,81 +529,138 @@ public class MainActivity extends Activity implements
 		outState.putString(ACCOUNT_KEY, mChosenAccountName);
 	}
 
+	/**
+	 * Reloads the uploads list from its first page. Further pages are loaded
+	 * as the user scrolls, see {@link #onScrolledNearEnd()}.
+	 */
 	private void loadUploadedVideos() {
 		if (mChosenAccountName == null) {
 			return;
 		}
 
-		setProgressBarIndeterminateVisibility(true);
-		new AsyncTask<Void, Void, List<VideoData>>() {
-			@Override
-			protected List<VideoData> doInBackground(Void... voids) {
+		showCachedVideos();
+		resetPaging();
+		loadNextPage();
+	}
+
+	private void resetPaging() {
+		// Results of pages requested before the reset are dropped.
+		mPageGeneration++;
+		mUploadsPlaylistId = null;
+		mNextPageToken = null;
+		mPageLoading = false;
+		mPageFailed = false;
+		mSeenIds.clear();
+		setProgressBarIndeterminateVisibility(false);
+	}
 
-				YouTube youtube = new YouTube.Builder(transport, jsonFactory,
-						credential).setApplicationName(Constants.APP_NAME)
-						.build();
+	/**
+	 * Replaces the shown videos with the cached uploads of the chosen account,
+	 * unless they are already that account's videos.
+	 */
+	private void showCachedVideos() {
+		if (mChosenAccountName == null
+				|| mChosenAccountName.equals(mVideosAccount)) {
+			return;
+		}
+		mVideosAccount = mChosenAccountName;
+		// Pages of the previous account must not be merged into this list.
+		resetPaging();
+		mVideos.setAll(UploadsCache.getInstance(this).read(mChosenAccountName));
+		mSearchIndex.clear();
+		mSearchIndex.putAll(mVideos);
+		showVideos();
+	}
 
-				try {
-					/*
-					 * Now that the user is authenticated, the app makes a
-					 * channels list request to get the authenticated user's
-					 * channel. Returned with that data is the playlist id for
-					 * the uploaded videos.
-					 * https://developers.google.com/youtube
-					 * /v3/docs/channels/list
-					 */
-					ChannelListResponse clr = youtube.channels()
-							.list("contentDetails").setMine(true).execute();
-
-					// Get the user's uploads playlist's id from channel list
-					// response
-					String uploadsPlaylistId = clr.getItems().get(0)
-							.getContentDetails().getRelatedPlaylists()
-							.getUploads();
-
-					List<VideoData> videos = new ArrayList<VideoData>();
-
-					// Get videos from user's upload playlist with a playlist
-					// items list request
-					PlaylistItemListResponse pilr = youtube.playlistItems()
-							.list("id,contentDetails")
-							.setPlaylistId(uploadsPlaylistId)
-							.setMaxResults(20l).execute();
-					List<String> videoIds = new ArrayList<String>();
-
-					// Iterate over playlist item list response to get uploaded
-					// videos' ids.
-					for (PlaylistItem item : pilr.getItems()) {
-						videoIds.add(item.getContentDetails().getVideoId());
-					}
+	/**
+	 * Shows the videos matching the search query, or all of them if there is
+	 * none, in the chosen order.
+	 */
+	private void showVideos() {
+		Set<String> matches = mSearchIndex.search(mQuery);
+		if (matches == null) {
+			mUploadsListFragment.setVideos(mVideos);
+			return;
+		}
+		List<VideoData> filtered = new ArrayList<VideoData>(matches.size());
+		for (VideoData video : mVideos) {
+			if (matches.contains(video.getYouTubeId())) {
+				filtered.add(video);
+			}
+		}
+		mUploadsListFragment.setVideos(filtered);
+	}
 
-					// Get details of uploaded videos with a videos list
-					// request.
-					VideoListResponse vlr = youtube.videos()
-							.list("id,snippet,status")
-							.setId(TextUtils.join(",", videoIds)).execute();
-
-					// Add only the public videos to the local videos list.
-					for (Video video : vlr.getItems()) {
-						if ("public".equals(video.getStatus()
-								.getPrivacyStatus())) {
-							VideoData videoData = new VideoData();
-							videoData.setVideo(video);
-							videos.add(videoData);
-						}
-					}
+	private void setQuery(String query) {
+		if (query == null ? mQuery == null : query.equals(mQuery)) {
+			return;
+		}
+		mQuery = query;
+		if (mUploadsListFragment != null) {
+			showVideos();
+		}
+	}
+
+	/**
+	 * Applies a page fetched from the network to the shown videos: new videos
+	 * are inserted at their sorted position and changed ones replaced. Once
+	 * the last page arrived, videos that weren't on any page are removed. The
+	 * list is only redrawn and cached again if something changed.
+	 */
+	private void mergePage(List<VideoData> videos, boolean lastPage) {
+		for (VideoData video : videos) {
+			mSeenIds.add(video.getYouTubeId());
+		}
+		List<VideoData> changedVideos = mVideos.putAll(videos);
+		mSearchIndex.putAll(changedVideos);
+		boolean changed = !changedVideos.isEmpty();
+		if (lastPage && mVideos.retainIds(mSeenIds)) {
+			mSearchIndex.retainIds(mSeenIds);
+			changed = true;
+		}
+		if (!changed) {
+			return;
+		}
+		showVideos();
+		UploadsCache.getInstance(this).write(mVideosAccount, mVideos);
+	}
 
-					// Sort videos by title
-					Collections.sort(videos, new Comparator<VideoData>() {
+	/**
+	 * Fetches the next pages of the uploads playlist and merges them into the
+	 * list shown by the fragment, in playlist order.
+	 */
+	private void loadNextPage() {
+		if (mChosenAccountName == null || mPageLoading || mPageFailed) {
+			return;
+		}
+		final boolean firstPage = mUploadsPlaylistId == null;
+		if (!firstPage && mNextPageToken == null) {
+			// Reached the end of the playlist
+			return;
+		}
+		mPageLoading = true;
+		final int generation = mPageGeneration;
+		final String playlistId = mUploadsPlaylistId;
+		final String pageToken = mNextPageToken;
+
+		setProgressBarIndeterminateVisibility(true);
+		final UploadsLoader loader = new UploadsLoader(this,
+				YouTubeClientFactory.getInstance(this).getYouTube(
+						mChosenAccountName), mChosenAccountName);
+		new AsyncTask<Void, UploadsPage, Boolean>() {
+			@Override
+			protected Boolean doInBackground(Void... voids) {
+				try {
+					// The first load only waits for the first page, so the list
+					// is filled quickly; later ones prefetch further ahead.
+					loader.load(playlistId, pageToken, firstPage ? 1
+							: PAGES_PER_LOAD, new UploadsLoader.Listener() {
 						@Override
-						public int compare(VideoData videoData,
-								VideoData videoData2) {
-							return videoData.getTitle().compareTo(
-									videoData2.getTitle());
+						public void onPageLoaded(UploadsPage page) {
+							publishProgress(page);
 						}
 					});
-
-					return videos;
+					return true;
 
 				} catch (final GooglePlayServicesAvailabilityIOException availabilityException) {
 					showGooglePlayServicesAvailabilityErrorDialog(availabilityException
@@ -494,23 +672,44 @@ public class MainActivity extends Activity implements
 				} catch (IOException e) {
 					Utils.logAndShow(MainActivity.this, Constants.APP_NAME, e);
 				}
-				return null;
+				return false;
 			}
 
 			@Override
-			protected void onPostExecute(List<VideoData> videos) {
-				setProgressBarIndeterminateVisibility(false);
+			protected void onProgressUpdate(UploadsPage... pages) {
+				if (generation != mPageGeneration) {
+					// A reload started meanwhile
+					return;
+				}
+				for (UploadsPage page : pages) {
+					mUploadsPlaylistId = page.playlistId;
+					mNextPageToken = page.nextPageToken;
+					mergePage(page.videos, page.nextPageToken == null);
+				}
+			}
 
-				if (videos == null) {
+			@Override
+			protected void onPostExecute(Boolean loaded) {
+				if (generation != mPageGeneration) {
 					return;
 				}
+				mPageLoading = false;
+				setProgressBarIndeterminateVisibility(false);
 
-				mUploadsListFragment.setVideos(videos);
+				if (!loaded) {
+					// Don't retry on every scroll, only on the next refresh.
+					mPageFailed = true;
+				}
 			}
 
 		}.execute((Void) null);
 	}
 
+	@Override
+	public void onScrolledNearEnd() {
+		loadNextPage();
+	}
+
 	@Override
 	public void onBackPressed() {
 		// if (mDirectFragment.popPlayerFromBackStack()) {
@@ -16,11 +16,6 @@ import com.google.android.youtube.player.YouTubePlayer;
 import com.google.android.youtube.player.YouTubePlayer.OnFullscreenListener;
 import com.google.android.youtube.player.YouTubePlayer.PlayerStateChangeListener;
 import com.google.android.youtube.player.YouTubePlayerFragment;
-import com.google.api.client.extensions.android.http.AndroidHttp;
-import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.ytdl.util.ImageFetcher;
 import com.google.ytdl.util.VideoData;
 
@@ -50,9 +45,6 @@ public class PlayActivity extends Activity implements
 	private YouTubePlayer mYouTubePlayer;
 	private boolean mIsFullScreen = false;
 	private static final String YOUTUBE_FRAGMENT_TAG = "youtube";
-	GoogleAccountCredential credential;
-	final HttpTransport transport = AndroidHttp.newCompatibleTransport();
-	final JsonFactory jsonFactory = new GsonFactory();
 	private Intent intent;
 
 	public PlayActivity() {
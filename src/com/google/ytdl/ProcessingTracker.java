@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Video;
+import com.google.api.services.youtube.model.VideoListResponse;
+import com.google.api.services.youtube.model.VideoProcessingDetails;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Waits for uploaded videos to finish processing and posts the "watch your video"
+ * notification of each one as soon as it is processed.
+ * <p/>
+ * Pending videos of the same account are checked together, with one videos.list request
+ * per {@link #MAX_IDS_PER_REQUEST} videos. Polling runs on its own thread, so upload
+ * workers hand a video over and move on to the next upload right away.
+ * <p/>
+ * The poll interval adapts: it follows the time left the server reports for the video
+ * closest to completion, and without an estimate it starts at {@link #MIN_POLL_MILLIS}
+ * and grows to {@link #MAX_POLL_MILLIS} while nothing finishes.
+ */
+public class ProcessingTracker {
+    private static final String TAG = "ProcessingTracker";
+
+    /**
+     * Most ids a single videos.list request accepts.
+     */
+    public static final int MAX_IDS_PER_REQUEST = 50;
+    public static final long MIN_POLL_MILLIS = 15 * 1000;
+    public static final long MAX_POLL_MILLIS = 2 * 60 * 1000;
+    /**
+     * How long to wait for a video to finish processing.
+     */
+    public static final long PROCESSING_TIMEOUT_MILLIS = 20 * 60 * 1000;
+
+    /**
+     * Processing statuses, see https://developers.google.com/youtube/v3/docs/videos
+     */
+    private static final String SUCCEEDED = "succeeded";
+    private static final String FAILED = "failed";
+    private static final String TERMINATED = "terminated";
+
+    /**
+     * Receives a callback on the tracker thread once no video is pending anymore.
+     */
+    public interface Listener {
+        public void onIdle();
+    }
+
+    private static class PendingVideo {
+        final String videoId;
+        final String accountName;
+        final long trackedAt;
+
+        PendingVideo(String videoId, String accountName) {
+            this.videoId = videoId;
+            this.accountName = accountName;
+            trackedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // Guarded by this
+    private final Map<String, PendingVideo> mPending = new LinkedHashMap<String, PendingVideo>();
+    private final Map<String, YouTube> mClients = new HashMap<String, YouTube>();
+    private long mPollMillis = MIN_POLL_MILLIS;
+
+    private final Runnable mPoll = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+
+    public ProcessingTracker(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Starts waiting for the given video to finish processing.
+     *
+     * @param youtube client of the account the video was uploaded to
+     */
+    public void track(String videoId, String accountName, YouTube youtube) {
+        synchronized (this) {
+            mPending.put(videoId, new PendingVideo(videoId, accountName));
+            mClients.put(accountName, youtube);
+            // A new video is checked soon, even if the others are expected to take long.
+            mPollMillis = MIN_POLL_MILLIS;
+            Log.d(TAG, String.format("Tracking processing of [%s], [%d] videos pending", videoId,
+                    mPending.size()));
+        }
+        mHandler.removeCallbacks(mPoll);
+        mHandler.postDelayed(mPoll, MIN_POLL_MILLIS);
+    }
+
+    public synchronized boolean isIdle() {
+        return mPending.isEmpty();
+    }
+
+    /**
+     * Stops polling; videos still pending are not notified.
+     */
+    public void quit() {
+        mHandler.removeCallbacks(mPoll);
+        mThread.quit();
+    }
+
+    private void poll() {
+        Map<String, List<String>> idsByAccount = new HashMap<String, List<String>>();
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            Iterator<PendingVideo> pending = mPending.values().iterator();
+            while (pending.hasNext()) {
+                PendingVideo video = pending.next();
+                if (now - video.trackedAt > PROCESSING_TIMEOUT_MILLIS) {
+                    Log.d(TAG, String.format("Bailing out polling for processing status of [%s]",
+                            video.videoId));
+                    pending.remove();
+                    continue;
+                }
+                List<String> ids = idsByAccount.get(video.accountName);
+                if (ids == null) {
+                    ids = new ArrayList<String>();
+                    idsByAccount.put(video.accountName, ids);
+                }
+                ids.add(video.videoId);
+            }
+        }
+
+        boolean anyFinished = false;
+        long minTimeLeftMillis = Long.MAX_VALUE;
+        for (Map.Entry<String, List<String>> account : idsByAccount.entrySet()) {
+            YouTube youtube;
+            synchronized (this) {
+                youtube = mClients.get(account.getKey());
+            }
+            List<String> ids = account.getValue();
+            for (int start = 0; start < ids.size(); start += MAX_IDS_PER_REQUEST) {
+                List<String> batch = ids.subList(start,
+                        Math.min(ids.size(), start + MAX_IDS_PER_REQUEST));
+                List<Video> videos;
+                try {
+                    videos = listProcessingDetails(youtube, batch);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error fetching processing details", e);
+                    continue;
+                }
+                for (Video video : videos) {
+                    VideoProcessingDetails details = video.getProcessingDetails();
+                    String status = details == null ? null : details.getProcessingStatus();
+                    Log.d(TAG, String.format("Processing status of [%s] is [%s]", video.getId(),
+                            status));
+                    if (SUCCEEDED.equals(status)) {
+                        finish(video.getId());
+                        ResumableUpload.showSelectableNotification(video.getId(), mContext);
+                        anyFinished = true;
+                    } else if (FAILED.equals(status) || TERMINATED.equals(status)) {
+                        finish(video.getId());
+                        anyFinished = true;
+                    } else if (details != null && details.getProcessingProgress() != null
+                            && details.getProcessingProgress().getTimeLeftMs() != null) {
+                        minTimeLeftMillis = Math.min(minTimeLeftMillis,
+                                details.getProcessingProgress().getTimeLeftMs().longValue());
+                    }
+                }
+            }
+        }
+        scheduleNextPoll(anyFinished, minTimeLeftMillis);
+    }
+
+    private List<Video> listProcessingDetails(YouTube youtube, List<String> ids)
+            throws IOException {
+        YouTube.Videos.List list = youtube.videos().list("id,processingDetails");
+        list.setId(TextUtils.join(",", ids));
+        list.setFields(ApiFields.PROCESSING_DETAILS);
+        VideoListResponse response = list.execute();
+        List<Video> videos = response.getItems();
+        ApiFields.check(ApiFields.PROCESSING_DETAILS, videos,
+                ApiFields.PROCESSING_DETAILS_REQUIRED);
+        return videos == null ? new ArrayList<Video>() : videos;
+    }
+
+    private synchronized void finish(String videoId) {
+        mPending.remove(videoId);
+    }
+
+    private void scheduleNextPoll(boolean anyFinished, long minTimeLeftMillis) {
+        long delay;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                mClients.clear();
+                delay = -1;
+            } else {
+                if (minTimeLeftMillis != Long.MAX_VALUE) {
+                    mPollMillis = minTimeLeftMillis;
+                } else if (anyFinished) {
+                    mPollMillis = MIN_POLL_MILLIS;
+                } else {
+                    mPollMillis = mPollMillis * 3 / 2;
+                }
+                mPollMillis = Math.max(MIN_POLL_MILLIS, Math.min(MAX_POLL_MILLIS, mPollMillis));
+                delay = mPollMillis;
+            }
+        }
+        if (delay < 0) {
+            mListener.onIdle();
+        } else {
+            Log.d(TAG, String.format("Next processing check in [%d] ms", delay));
+            mHandler.removeCallbacks(mPoll);
+            mHandler.postDelayed(mPoll, delay);
+        }
+    }
+}
@@ -19,38 +19,29 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.provider.MediaStore;
-import android.provider.MediaStore.Video.Thumbnails;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.google.api.client.googleapis.extensions.android.gms.auth.GooglePlayServicesAvailabilityIOException;
 import com.google.api.client.googleapis.extensions.android.gms.auth.UserRecoverableAuthIOException;
-import com.google.api.client.googleapis.media.MediaHttpUploader;
-import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
-import com.google.api.client.http.InputStreamContent;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.Video;
-import com.google.api.services.youtube.model.VideoListResponse;
 import com.google.api.services.youtube.model.VideoSnippet;
 import com.google.api.services.youtube.model.VideoStatus;
+import com.google.ytdl.util.FileChannelContent;
+import com.google.ytdl.util.ImageFetcher;
 import com.google.ytdl.util.Upload;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.List;
 
 
 /**
@@ -64,42 +55,60 @@ public class ResumableUpload {
     /*
      * Global instance of the format used for the video being uploaded (MIME type).
      */
-    private static String VIDEO_FILE_FORMAT = "video/*";
+    static final String VIDEO_FILE_FORMAT = "video/*";
     /**
      * Assigned to the upload
      */
     public static final String[] DEFAULT_KEYWORDS = {"MultiSquash", "Game"};
 
+    private static final String TAG = "UploadingActivity";
     /**
-     * Indicates that the video is fully processed, see https://www.googleapis.com/discovery/v1/apis/youtube/v3/rpc
+     * Height of the picture of an expanded notification
      */
-    private static final String SUCCEEDED = "succeeded";
-
-    private static final String TAG = "UploadingActivity";
+    private static final int BIG_PICTURE_HEIGHT_DP = 256;
+    /**
+     * Thumbnail of the processed video, larger than the one the uploads list shows
+     */
+    private static final String NOTIFICATION_THUMBNAIL_URL_FORMAT =
+            "https://i1.ytimg.com/vi/%s/mqdefault.jpg";
+    private static ImageFetcher sNotificationImageFetcher;
     /**
      * Uploads user selected video in the project folder to the user's YouTube account using OAuth2
      * for authentication.
      *
+     * @param retryPolicy decides which failed requests of the upload are retried
+     * @param metrics     receives the timings of the upload
+     * @throws IOException if the upload failed, after the failure was shown to the user
      */
 
-    public static String upload(YouTube youtube, final InputStream fileInputStream,
-                                final long fileSize, final Uri mFileUri, final String path,final Context context) {
-        final NotificationManager notifyManager =
-                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    public static String upload(YouTube youtube, final FileChannelContent mediaContent,
+                                final Uri mFileUri, final String path, final Context context,
+                                UploadRetryPolicy retryPolicy, UploadMetrics metrics)
+            throws IOException {
+        final long fileSize = mediaContent.getLength();
         final NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
-         
+
         Intent notificationIntent = new Intent(context, ReviewActivity.class);
         notificationIntent.setData(mFileUri);
         notificationIntent.setAction(Intent.ACTION_VIEW);
-Bitmap thumbnail = ThumbnailUtils.createVideoThumbnail(path, Thumbnails.MICRO_KIND);
         PendingIntent contentIntent = PendingIntent.getActivity(context,
                 0, notificationIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-        builder.setContentTitle(context.getString(R.string.youtube_upload))
-                .setContentText(context.getString(R.string.youtube_upload_started))
-                .setSmallIcon(R.drawable.ic_stat_device_access_video).setContentIntent(contentIntent).setStyle(new NotificationCompat.BigPictureStyle().bigPicture(thumbnail));
-        notifyManager.notify(UPLOAD_NOTIFICATION_ID, builder.build());
+        builder.setSmallIcon(R.drawable.ic_stat_device_access_video).setContentIntent(contentIntent);
+        // Each upload owns its notification, tagged with the Uri of the file being uploaded.
+        final UploadNotificationPublisher notifier = new UploadNotificationPublisher(context,
+                builder, mFileUri.toString(), UPLOAD_NOTIFICATION_ID);
+        notifier.publishState(context.getString(R.string.youtube_upload),
+                context.getString(R.string.youtube_upload_started));
+        // The thumbnail is added to the notification once it is ready, the upload doesn't wait.
+        UploadThumbnailLoader.getInstance(context).load(path, new UploadThumbnailLoader.Callback() {
+            @Override
+            public void onThumbnailLoaded(Bitmap thumbnail) {
+                notifier.publishPicture(thumbnail);
+            }
+        });
 
         String videoId = null;
+        UploadSession session = null;
         try {
             // Add extra information to the video before uploading.
             Video videoObjectDefiningMetadata = new Video();
@@ -132,78 +141,83 @@ Bitmap thumbnail = ThumbnailUtils.createVideoThumbnail(path, Thumbnails.MICRO_KI
             // Set completed snippet to the video object.
             videoObjectDefiningMetadata.setSnippet(snippet);
 
-            InputStreamContent mediaContent =
-                    new InputStreamContent(VIDEO_FILE_FORMAT, new BufferedInputStream(fileInputStream));
-            mediaContent.setLength(fileSize);
-
       /*
        * The upload command includes: 1. Information we want returned after file is successfully
        * uploaded. 2. Metadata we want associated with the uploaded video. 3. Video file itself.
        */
             YouTube.Videos.Insert videoInsert =
-                    youtube.videos().insert("snippet,statistics,status", videoObjectDefiningMetadata,
+                    youtube.videos().insert("snippet,status", videoObjectDefiningMetadata,
                             mediaContent);
-
-            // Set the upload type and add event listener.
-            MediaHttpUploader uploader = videoInsert.getMediaHttpUploader();
+            // Only the id of the uploaded video is read from the response.
+            videoInsert.setFields(ApiFields.VIDEO_ID);
 
       /*
-       * Sets whether direct media upload is enabled or disabled. True = whole media content is
-       * uploaded in a single request. False (default) = resumable media upload protocol to upload
-       * in data chunks.
+       * The upload always uses the resumable media upload protocol. If an earlier attempt of this
+       * upload left a session behind, the session is resumed from the last byte the server
+       * committed instead of starting from byte zero.
        */
-            uploader.setDirectUploadEnabled(false);
+            final UploadQueue queue = UploadQueue.getInstance(context);
+            UploadQueue.Entry queued = queue.get(mFileUri);
+            session = new UploadSession(youtube, videoInsert, VIDEO_FILE_FORMAT,
+                    fileSize, queued == null ? null : queued.sessionUri);
+            session.setChunkSizeController(ChunkSizeController.forActiveNetwork(context));
+            session.setRetryPolicy(retryPolicy);
+            session.setMetrics(metrics);
 
-            MediaHttpUploaderProgressListener progressListener = new MediaHttpUploaderProgressListener() {
-                public void progressChanged(MediaHttpUploader uploader) throws IOException {
+            UploadSession.ProgressListener progressListener = new UploadSession.ProgressListener() {
+                public void progressChanged(UploadSession uploader) throws IOException {
                     switch (uploader.getUploadState()) {
                         case INITIATION_STARTED:
-                            builder.setContentText(context.getString(R.string.initiation_started)).setProgress((int) fileSize,
-                                    (int) uploader.getNumBytesUploaded(), false);
-                            notifyManager.notify(UPLOAD_NOTIFICATION_ID, builder.build());
+                            notifier.publishProgress(context.getString(R.string.youtube_upload),
+                                    context.getString(R.string.initiation_started),
+                                    uploader.getNumBytesUploaded(), fileSize);
                             break;
                         case INITIATION_COMPLETE:
-                            builder.setContentText(context.getString(R.string.initiation_completed)).setProgress((int) fileSize,
-                                    (int) uploader.getNumBytesUploaded(), false);
-                            notifyManager.notify(UPLOAD_NOTIFICATION_ID, builder.build());
+                            queue.setSession(mFileUri, uploader.getSessionUri());
+                            notifier.publishProgress(context.getString(R.string.youtube_upload),
+                                    context.getString(R.string.initiation_completed),
+                                    uploader.getNumBytesUploaded(), fileSize);
                             break;
                         case MEDIA_IN_PROGRESS:
-                            builder
-                                    .setContentTitle(context.getString(R.string.youtube_upload) +
-                                            (int) (uploader.getProgress() * 100) + "%")
-                                    .setContentText(context.getString(R.string.upload_in_progress))
-                                    .setProgress((int) fileSize, (int) uploader.getNumBytesUploaded(), false);
-                            notifyManager.notify(UPLOAD_NOTIFICATION_ID, builder.build());
+                            notifier.publishProgress(context.getString(R.string.youtube_upload) +
+                                            (int) (uploader.getProgress() * 100) + "%",
+                                    context.getString(R.string.upload_in_progress),
+                                    uploader.getNumBytesUploaded(), fileSize);
                             break;
                         case MEDIA_COMPLETE:
-                            builder.setContentTitle(context.getString(R.string.yt_upload_completed))
-                                    .setContentText(context.getString(R.string.upload_completed))
-                                            // Removes the progress bar
-                                    .setProgress(0, 0, false);
-                            notifyManager.notify(UPLOAD_NOTIFICATION_ID, builder.build());
+                            notifier.publishFinished(context.getString(R.string.yt_upload_completed),
+                                    context.getString(R.string.upload_completed));
                         case NOT_STARTED:
                             Log.d(this.getClass().getSimpleName(), context.getString(R.string.upload_not_started));
                             break;
                     }
                 }
             };
-            uploader.setProgressListener(progressListener);
+            session.setProgressListener(progressListener);
 
             // Execute upload.
-            Video returnedVideo = videoInsert.execute();
+            Video returnedVideo = session.upload(mediaContent);
             Log.d(TAG, "Video upload completed");
             videoId = returnedVideo.getId();
             Log.d(TAG, String.format("videoId = [%s]", videoId));
           } catch (final GooglePlayServicesAvailabilityIOException availabilityException) {
             Log.e(TAG, "GooglePlayServicesAvailabilityIOException", availabilityException);
-        	  notifyFailedUpload(context, context.getString(R.string.cant_access_play), notifyManager, builder);
+        	  notifyFailedUpload(context, context.getString(R.string.cant_access_play), notifier);
+            throw availabilityException;
           } catch (UserRecoverableAuthIOException userRecoverableException) {
               Log.i(TAG, String.format("UserRecoverableAuthIOException: %s",
                       userRecoverableException.getMessage()));
               requestAuth(context, userRecoverableException);
+              throw userRecoverableException;
           } catch (IOException e) {
             Log.e(TAG, "IOException", e);
-        	  notifyFailedUpload(context, context.getString(R.string.please_try_again), notifyManager, builder);
+        	  notifyFailedUpload(context, context.getString(R.string.please_try_again), notifier);
+            throw e;
+          } finally {
+            if (session != null) {
+                Log.d(TAG, String.format("Upload of [%s] retried [%d] requests, backing off for [%d] ms",
+                        mFileUri, session.getRetryCount(), session.getBackOffMillis()));
+            }
           }
         return videoId;
     }
@@ -218,11 +232,9 @@ Bitmap thumbnail = ThumbnailUtils.createVideoThumbnail(path, Thumbnails.MICRO_KI
         Log.d(TAG, String.format("Sent broadcast %s", MainActivity.REQUEST_AUTHORIZATION_INTENT));
     }
     
-    private static void notifyFailedUpload(Context context, String message, NotificationManager notifyManager,
-                                           NotificationCompat.Builder builder){
-        builder.setContentTitle(context.getString(R.string.yt_upload_failed))
-        .setContentText(message);
-        notifyManager.notify(UPLOAD_NOTIFICATION_ID, builder.build());
+    private static void notifyFailedUpload(Context context, String message,
+                                           UploadNotificationPublisher notifier){
+        notifier.publishFinished(context.getString(R.string.yt_upload_failed), message);
         Log.e(ResumableUpload.class.getSimpleName(), message);
     }
 
@@ -235,48 +247,29 @@ Bitmap thumbnail = ThumbnailUtils.createVideoThumbnail(path, Thumbnails.MICRO_KI
         notificationIntent.putExtra(MainActivity.YOUTUBE_ID, videoId);
         notificationIntent.setAction(Intent.ACTION_VIEW);
         
-        URL url;
-		try {
-			url = new URL("https://i1.ytimg.com/vi/"+videoId+"/mqdefault.jpg");
-			Bitmap thumbnail = BitmapFactory.decodeStream(url.openConnection().getInputStream());
+        Bitmap thumbnail = getNotificationImageFetcher(context).loadBitmap(
+                String.format(NOTIFICATION_THUMBNAIL_URL_FORMAT, videoId));
         PendingIntent contentIntent = PendingIntent.getActivity(context,
-                0, notificationIntent, PendingIntent.FLAG_CANCEL_CURRENT);
+                videoId.hashCode(), notificationIntent, PendingIntent.FLAG_CANCEL_CURRENT);
         builder.setContentTitle(context.getString(R.string.watch_your_video))
-                .setContentText(context.getString(R.string.see_the_newly_uploaded_video)).setContentIntent(contentIntent).setSmallIcon(R.drawable.ic_stat_device_access_video).setStyle(new NotificationCompat.BigPictureStyle().bigPicture(thumbnail));
-        notifyManager.notify(PLAYBACK_NOTIFICATION_ID, builder.build());
+                .setContentText(context.getString(R.string.see_the_newly_uploaded_video)).setContentIntent(contentIntent).setSmallIcon(R.drawable.ic_stat_device_access_video);
+        if (thumbnail != null) {
+            builder.setStyle(new NotificationCompat.BigPictureStyle().bigPicture(thumbnail));
+        }
+        notifyManager.notify(videoId, PLAYBACK_NOTIFICATION_ID, builder.build());
         Log.d(TAG, String.format("Selectable notification for video ID [%s] posted", videoId));
-		} catch (MalformedURLException e) {
-			Log.e(TAG, e.getMessage());
-		} catch (IOException e) {
-			Log.e(TAG, e.getMessage());
-		}
     }
 
-
     /**
-     * @return url of thumbnail if the video is fully processed
+     * @return fetcher which samples images down to the size of a big picture notification
      */
-    public static boolean checkIfProcessed(String videoId, YouTube youtube) {
-        try {
-            YouTube.Videos.List list = youtube.videos().list("processingDetails");
-            list.setId(videoId);
-            VideoListResponse listResponse = list.execute();
-            List<Video> videos = listResponse.getItems();
-            if (videos.size()==1) {
-                Video video = videos.get(0);
-                String status = video.getProcessingDetails().getProcessingStatus();
-                Log.e(TAG, String.format("Processing status of [%s] is [%s]", videoId, status));
-                if (status.equals(SUCCEEDED)) {
-                	return true;
-                }
-            } else {
-                // can't find the video
-                Log.e(TAG, String.format("Can't find video with ID [%s]", videoId));
-                return false;
-            }
-        } catch (IOException e) {
-            Log.e(TAG,"Error fetching video metadata", e);
+    private static synchronized ImageFetcher getNotificationImageFetcher(Context context) {
+        if (sNotificationImageFetcher == null) {
+            Resources resources = context.getResources();
+            sNotificationImageFetcher = new ImageFetcher(context.getApplicationContext(),
+                    resources.getDisplayMetrics().widthPixels,
+                    Math.round(BIG_PICTURE_HEIGHT_DP * resources.getDisplayMetrics().density));
         }
-        return false;
+        return sNotificationImageFetcher;
     }
 }
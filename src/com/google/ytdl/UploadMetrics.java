@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.os.SystemClock;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings of a single upload, from the moment it was picked up by a worker until it
+ * completed or failed. Filled in by {@link UploadService} and {@link UploadSession}, and
+ * kept in the {@link UploadMetricsStore} once the upload finished.
+ * <p/>
+ * All durations are in milliseconds; -1 means the event didn't happen.
+ */
+public class UploadMetrics {
+    /**
+     * How many of the most recent chunks are kept one by one; totals cover all of them.
+     */
+    private static final int MAX_KEPT_CHUNKS = 64;
+
+    /**
+     * A chunk the server acknowledged.
+     */
+    public static class Chunk {
+        public final long bytes;
+        public final long millis;
+
+        Chunk(long bytes, long millis) {
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public long getBytesPerSecond() {
+            return millis == 0 ? 0 : bytes * 1000 / millis;
+        }
+    }
+
+    public final String fileUri;
+    public final String networkType;
+    /**
+     * Wall clock time the upload started at, for correlating with other logs.
+     */
+    public final long startedAt;
+    private final long mStartRealtime;
+
+    private long mMediaLength;
+    private long mInitiationMillis = -1;
+    private long mTimeToFirstChunkMillis = -1;
+    private long mWallMillis = -1;
+    private int mAttempts;
+    private int mRetries;
+    private long mBackOffMillis;
+    private int mChunkCount;
+    private long mChunkBytes;
+    private long mChunkMillis;
+    private final LinkedList<Chunk> mChunks = new LinkedList<Chunk>();
+    private final Map<UploadService.UploadState, Long> mStateMillis =
+            new EnumMap<UploadService.UploadState, Long>(UploadService.UploadState.class);
+    private UploadService.UploadState mState;
+    private long mStateEnteredAt;
+
+    public UploadMetrics(String fileUri, String networkType) {
+        this.fileUri = fileUri;
+        this.networkType = networkType;
+        startedAt = System.currentTimeMillis();
+        mStartRealtime = SystemClock.elapsedRealtime();
+        mStateEnteredAt = mStartRealtime;
+    }
+
+    synchronized void onStateChanged(UploadService.UploadState state) {
+        long now = SystemClock.elapsedRealtime();
+        if (mState != null) {
+            Long spent = mStateMillis.get(mState);
+            mStateMillis.put(mState, (spent == null ? 0 : spent) + now - mStateEnteredAt);
+        }
+        mState = state;
+        mStateEnteredAt = now;
+        if (state == UploadService.UploadState.UPLOADING) {
+            mAttempts++;
+        }
+    }
+
+    synchronized void onMediaLength(long mediaLength) {
+        mMediaLength = mediaLength;
+    }
+
+    synchronized void onInitiated(long millis) {
+        mInitiationMillis = millis;
+    }
+
+    synchronized void onChunkCompleted(long bytes, long millis) {
+        if (mTimeToFirstChunkMillis < 0) {
+            mTimeToFirstChunkMillis = SystemClock.elapsedRealtime() - mStartRealtime;
+        }
+        mChunkCount++;
+        mChunkBytes += bytes;
+        mChunkMillis += millis;
+        mChunks.add(new Chunk(bytes, millis));
+        if (mChunks.size() > MAX_KEPT_CHUNKS) {
+            mChunks.removeFirst();
+        }
+    }
+
+    synchronized void onRetry(long backOffMillis) {
+        mRetries++;
+        mBackOffMillis += backOffMillis;
+    }
+
+    /**
+     * Stops the clock; the time of the final state is recorded up to now.
+     */
+    synchronized void onFinished(UploadService.UploadState state) {
+        onStateChanged(state);
+        mWallMillis = SystemClock.elapsedRealtime() - mStartRealtime;
+    }
+
+    public synchronized long getMediaLength() {
+        return mMediaLength;
+    }
+
+    /**
+     * @return time the initiation request of the session took, the last one if the session had
+     *         to be started again
+     */
+    public synchronized long getInitiationMillis() {
+        return mInitiationMillis;
+    }
+
+    /**
+     * @return time from the start of the upload until the server acknowledged the first chunk
+     */
+    public synchronized long getTimeToFirstChunkMillis() {
+        return mTimeToFirstChunkMillis;
+    }
+
+    public synchronized long getWallMillis() {
+        return mWallMillis;
+    }
+
+    /**
+     * @return how many times the whole upload was started
+     */
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * @return how many failed requests were retried
+     */
+    public synchronized int getRetries() {
+        return mRetries;
+    }
+
+    public synchronized long getBackOffMillis() {
+        return mBackOffMillis;
+    }
+
+    /**
+     * @return how many chunks the server acknowledged
+     */
+    public synchronized int getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * @return the most recent acknowledged chunks, at most {@value #MAX_KEPT_CHUNKS}
+     */
+    public synchronized List<Chunk> getChunks() {
+        return new ArrayList<Chunk>(mChunks);
+    }
+
+    /**
+     * @return average throughput of the acknowledged chunks, in bytes per second
+     */
+    public synchronized long getBytesPerSecond() {
+        return mChunkMillis == 0 ? 0 : mChunkBytes * 1000 / mChunkMillis;
+    }
+
+    /**
+     * @return time spent in the given state, not counting the current state
+     */
+    public synchronized long getStateMillis(UploadService.UploadState state) {
+        Long millis = mStateMillis.get(state);
+        return millis == null ? 0 : millis;
+    }
+
+    /**
+     * @return the state the upload finished in, or is currently in
+     */
+    public synchronized UploadService.UploadState getState() {
+        return mState;
+    }
+
+    synchronized void writeTo(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("fileUri").value(fileUri);
+        writer.name("networkType").value(networkType);
+        writer.name("startedAt").value(startedAt);
+        writer.name("state").value(mState == null ? null : mState.name());
+        writer.name("mediaLength").value(mMediaLength);
+        writer.name("initiationMillis").value(mInitiationMillis);
+        writer.name("timeToFirstChunkMillis").value(mTimeToFirstChunkMillis);
+        writer.name("wallMillis").value(mWallMillis);
+        writer.name("attempts").value(mAttempts);
+        writer.name("retries").value(mRetries);
+        writer.name("backOffMillis").value(mBackOffMillis);
+        writer.name("bytesPerSecond").value(getBytesPerSecond());
+        writer.name("chunkCount").value(mChunkCount);
+        writer.name("stateMillis").beginObject();
+        for (Map.Entry<UploadService.UploadState, Long> entry : mStateMillis.entrySet()) {
+            writer.name(entry.getKey().name()).value(entry.getValue());
+        }
+        writer.endObject();
+        writer.name("chunks").beginArray();
+        for (Chunk chunk : mChunks) {
+            writer.beginObject();
+            writer.name("bytes").value(chunk.bytes);
+            writer.name("millis").value(chunk.millis);
+            writer.name("bytesPerSecond").value(chunk.getBytesPerSecond());
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("[%s] %s on %s: wallMillis=%d, initiationMillis=%d, "
+                + "timeToFirstChunkMillis=%d, bytesPerSecond=%d, chunks=%d, attempts=%d, "
+                + "retries=%d, backOffMillis=%d", fileUri, mState, networkType, mWallMillis,
+                mInitiationMillis, mTimeToFirstChunkMillis, getBytesPerSecond(), mChunkCount,
+                mAttempts, mRetries, mBackOffMillis);
+    }
+}
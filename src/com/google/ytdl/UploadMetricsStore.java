@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Keeps the {@link UploadMetrics} of the last {@link #CAPACITY} uploads in memory; older
+ * ones are dropped. The metrics can be queried, or exported as JSON together with the
+ * device and build they were measured on, e.g. to compare devices, networks and builds.
+ * Debug builds export them on {@link UploadService#ACTION_EXPORT_METRICS}.
+ */
+public class UploadMetricsStore {
+    private static final String TAG = "UploadMetricsStore";
+    public static final int CAPACITY = 100;
+    public static final String EXPORT_FILE_NAME = "upload_metrics.json";
+
+    private static UploadMetricsStore sInstance;
+
+    private final Context mContext;
+    private final LinkedList<UploadMetrics> mMetrics = new LinkedList<UploadMetrics>();
+
+    public static synchronized UploadMetricsStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UploadMetricsStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UploadMetricsStore(Context context) {
+        mContext = context;
+    }
+
+    public void record(UploadMetrics metrics) {
+        synchronized (mMetrics) {
+            mMetrics.addLast(metrics);
+            if (mMetrics.size() > CAPACITY) {
+                mMetrics.removeFirst();
+            }
+        }
+        Log.i(TAG, metrics.toString());
+    }
+
+    /**
+     * @return the recorded metrics, oldest first
+     */
+    public List<UploadMetrics> getAll() {
+        synchronized (mMetrics) {
+            return new ArrayList<UploadMetrics>(mMetrics);
+        }
+    }
+
+    /**
+     * @param networkType network type as reported by {@link UploadMetrics#networkType}
+     * @return the metrics of the uploads made on the given network type, oldest first
+     */
+    public List<UploadMetrics> getForNetwork(String networkType) {
+        List<UploadMetrics> result = new ArrayList<UploadMetrics>();
+        for (UploadMetrics metrics : getAll()) {
+            if (networkType.equals(metrics.networkType)) {
+                result.add(metrics);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes every recorded upload to {@link #EXPORT_FILE_NAME} in the files directory of the
+     * app.
+     *
+     * @return the written file
+     */
+    public File exportJson() throws IOException {
+        File file = new File(mContext.getFilesDir(), EXPORT_FILE_NAME);
+        exportJson(file);
+        return file;
+    }
+
+    public void exportJson(File file) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("device").value(Build.MANUFACTURER + " " + Build.MODEL);
+            writer.name("sdk").value(Build.VERSION.SDK_INT);
+            writer.name("build").value(getVersionName());
+            writer.name("uploads").beginArray();
+            for (UploadMetrics metrics : getAll()) {
+                metrics.writeTo(writer);
+            }
+            writer.endArray();
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+        Log.d(TAG, String.format("Exported upload metrics to [%s]", file));
+    }
+
+    private String getVersionName() {
+        try {
+            return mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0)
+                    .versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+
+/**
+ * Publishes the notification of a single upload.
+ * <p/>
+ * Callers only record the latest state; building the notification and the IPC to the
+ * notification manager happen on a shared background thread, so they never block the
+ * upload thread. State changes (a new content text, completion, failure) are posted right
+ * away. Progress is posted only once it moved by at least the minimum step, and at most
+ * once per minimum interval; updates that arrive faster are merged into one trailing post.
+ * <p/>
+ * Progress is scaled to {@link #PROGRESS_MAX} so byte counts beyond 2 GB don't overflow
+ * the int based progress bar.
+ * <p/>
+ * A picture is sent to the notification manager with the one post that shows it and with the
+ * final post, progress posts leave it out so the bitmap isn't copied over IPC every time.
+ */
+public class UploadNotificationPublisher {
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_MIN_STEP_PERMILLE = 10; // 1%
+    /**
+     * Resolution of the progress bar.
+     */
+    public static final int PROGRESS_MAX = 1000;
+
+    private static Handler sHandler;
+
+    private final NotificationManager mNotifyManager;
+    private final NotificationCompat.Builder mBuilder;
+    private final String mTag;
+    private final int mId;
+    private final long mMinIntervalMillis;
+    private final int mMinStepPermille;
+
+    // Latest requested state, guarded by this
+    private CharSequence mTitle;
+    private CharSequence mText;
+    private int mProgress = -1;
+    private Bitmap mPicture;
+    private boolean mPicturePending;
+    private boolean mFinished;
+    private boolean mPostScheduled;
+
+    // Last posted state, guarded by this
+    private CharSequence mPostedText;
+    private int mPostedProgress = -1;
+    private long mLastPostTime;
+
+    private final Runnable mPost = new Runnable() {
+        @Override
+        public void run() {
+            Notification notification;
+            synchronized (UploadNotificationPublisher.this) {
+                mPostScheduled = false;
+                mBuilder.setContentTitle(mTitle).setContentText(mText);
+                if (mPicture != null && (mPicturePending || mFinished)) {
+                    mBuilder.setStyle(new NotificationCompat.BigPictureStyle().bigPicture(mPicture));
+                    mPicturePending = false;
+                } else {
+                    mBuilder.setStyle(null);
+                }
+                if (mProgress < 0) {
+                    // Removes the progress bar
+                    mBuilder.setProgress(0, 0, false);
+                } else {
+                    mBuilder.setProgress(PROGRESS_MAX, mProgress, false);
+                }
+                notification = mBuilder.build();
+                mPostedText = mText;
+                mPostedProgress = mProgress;
+                mLastPostTime = SystemClock.uptimeMillis();
+            }
+            mNotifyManager.notify(mTag, mId, notification);
+        }
+    };
+
+    /**
+     * @param builder builder with the static parts of the notification (icon, intent)
+     *                already set; it is owned by the publisher from now on
+     * @param tag     tag of the notification
+     * @param id      id of the notification
+     */
+    public UploadNotificationPublisher(Context context, NotificationCompat.Builder builder,
+                                       String tag, int id) {
+        this(context, builder, tag, id, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MIN_STEP_PERMILLE);
+    }
+
+    /**
+     * @param minIntervalMillis minimum time between two progress posts
+     * @param minStepPermille   minimum progress change, in 1/1000 of the total, worth a post
+     */
+    public UploadNotificationPublisher(Context context, NotificationCompat.Builder builder,
+                                       String tag, int id, long minIntervalMillis,
+                                       int minStepPermille) {
+        mNotifyManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        mBuilder = builder;
+        mTag = tag;
+        mId = id;
+        mMinIntervalMillis = minIntervalMillis;
+        mMinStepPermille = minStepPermille;
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread("UploadNotifications",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    /**
+     * Posts a state change right away, keeping the current progress bar.
+     */
+    public synchronized void publishState(CharSequence title, CharSequence text) {
+        mTitle = title;
+        mText = text;
+        postNow();
+    }
+
+    /**
+     * Posts the given picture right away, as the big picture of the notification. It is
+     * posted again with the final state only.
+     */
+    public synchronized void publishPicture(Bitmap picture) {
+        mPicture = picture;
+        mPicturePending = true;
+        postNow();
+    }
+
+    /**
+     * Records upload progress and posts it if it moved far enough, rate limited.
+     */
+    public synchronized void publishProgress(CharSequence title, CharSequence text,
+                                             long bytesUploaded, long totalBytes) {
+        mTitle = title;
+        mText = text;
+        mProgress = scale(bytesUploaded, totalBytes);
+        if (!text.equals(mPostedText)) {
+            postNow();
+        } else if (mProgress - mPostedProgress >= mMinStepPermille && !mPostScheduled) {
+            long delay = mLastPostTime + mMinIntervalMillis - SystemClock.uptimeMillis();
+            mPostScheduled = true;
+            getHandler().postDelayed(mPost, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Posts the final state of the upload right away and removes the progress bar.
+     */
+    public synchronized void publishFinished(CharSequence title, CharSequence text) {
+        mTitle = title;
+        mText = text;
+        mProgress = -1;
+        mFinished = true;
+        postNow();
+    }
+
+    /**
+     * @return the percentage of the upload that completed, as last recorded
+     */
+    public synchronized int getPercent() {
+        return mProgress < 0 ? 0 : mProgress * 100 / PROGRESS_MAX;
+    }
+
+    private void postNow() {
+        Handler handler = getHandler();
+        handler.removeCallbacks(mPost);
+        mPostScheduled = true;
+        handler.post(mPost);
+    }
+
+    /**
+     * @return bytesUploaded as a fraction of totalBytes, scaled to {@link #PROGRESS_MAX}
+     */
+    static int scale(long bytesUploaded, long totalBytes) {
+        if (totalBytes <= 0) {
+            return 0;
+        }
+        return (int) (Math.min(bytesUploaded, totalBytes) * PROGRESS_MAX / totalBytes);
+    }
+}
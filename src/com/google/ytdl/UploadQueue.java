@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent queue of uploads which haven't finished yet. Besides the file and account of
+ * each upload it records the resumable session URI, so an upload interrupted by a crash,
+ * reboot or connectivity loss can ask the server where it stopped and resume from there.
+ */
+public class UploadQueue extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "uploads.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_UPLOADS = "uploads";
+    private static final String COLUMN_FILE_URI = "file_uri";
+    private static final String COLUMN_ACCOUNT = "account";
+    private static final String COLUMN_SESSION_URI = "session_uri";
+    private static final String COLUMN_ATTEMPTS = "attempts";
+    private static final String COLUMN_CREATED = "created";
+
+    private static final String[] ALL_COLUMNS = {COLUMN_FILE_URI, COLUMN_ACCOUNT,
+            COLUMN_SESSION_URI, COLUMN_ATTEMPTS};
+
+    private static UploadQueue sInstance;
+
+    /**
+     * A queued upload.
+     */
+    public static class Entry {
+        public final Uri fileUri;
+        public final String accountName;
+        public final String sessionUri;
+        public final int attempts;
+
+        private Entry(Cursor cursor) {
+            fileUri = Uri.parse(cursor.getString(0));
+            accountName = cursor.getString(1);
+            sessionUri = cursor.getString(2);
+            attempts = cursor.getInt(3);
+        }
+    }
+
+    public static synchronized UploadQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UploadQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UploadQueue(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_UPLOADS + " ("
+                + COLUMN_FILE_URI + " TEXT PRIMARY KEY, "
+                + COLUMN_ACCOUNT + " TEXT, "
+                + COLUMN_SESSION_URI + " TEXT, "
+                + COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CREATED + " INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_UPLOADS);
+        onCreate(db);
+    }
+
+    /**
+     * Adds an upload to the queue, unless the same file is already queued.
+     */
+    public void enqueue(Uri fileUri, String accountName) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_FILE_URI, fileUri.toString());
+        values.put(COLUMN_ACCOUNT, accountName);
+        values.put(COLUMN_CREATED, System.currentTimeMillis());
+        getWritableDatabase().insertWithOnConflict(TABLE_UPLOADS, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * @return the queued upload of the given file, or null if it isn't queued
+     */
+    public Entry get(Uri fileUri) {
+        Cursor cursor = getReadableDatabase().query(TABLE_UPLOADS, ALL_COLUMNS,
+                COLUMN_FILE_URI + " = ?", new String[]{fileUri.toString()}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? new Entry(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return all queued uploads, oldest first
+     */
+    public List<Entry> getAll() {
+        Cursor cursor = getReadableDatabase().query(TABLE_UPLOADS, ALL_COLUMNS, null, null, null,
+                null, COLUMN_CREATED);
+        try {
+            List<Entry> entries = new ArrayList<Entry>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor));
+            }
+            return entries;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records the resumable session of an upload. A null session URI forgets the session, so
+     * the next attempt starts from byte zero.
+     */
+    public void setSession(Uri fileUri, String sessionUri) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SESSION_URI, sessionUri);
+        update(fileUri, values);
+    }
+
+    public void setAttempts(Uri fileUri, int attempts) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ATTEMPTS, attempts);
+        update(fileUri, values);
+    }
+
+    public void remove(Uri fileUri) {
+        getWritableDatabase().delete(TABLE_UPLOADS, COLUMN_FILE_URI + " = ?",
+                new String[]{fileUri.toString()});
+    }
+
+    private void update(Uri fileUri, ContentValues values) {
+        getWritableDatabase().update(TABLE_UPLOADS, values, COLUMN_FILE_URI + " = ?",
+                new String[]{fileUri.toString()});
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+/**
+ * Restarts the uploads left in the {@link UploadQueue} after a reboot or once network
+ * connectivity is back.
+ */
+public class UploadRecoveryReceiver extends BroadcastReceiver {
+    private static final String TAG = "UploadRecoveryReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return;
+        }
+        Log.d(TAG, String.format("Resuming queued uploads after [%s]", intent.getAction()));
+        Intent resumeIntent = new Intent(context, UploadService.class);
+        resumeIntent.setAction(UploadService.ACTION_RESUME_UPLOADS);
+        context.startService(resumeIntent);
+    }
+}
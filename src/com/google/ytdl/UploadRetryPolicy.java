@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import java.io.IOException;
+
+/**
+ * Decides whether a failed request of an {@link UploadSession} is retried and how long to
+ * wait before retrying it. A policy instance belongs to a single upload.
+ */
+public interface UploadRetryPolicy {
+    /**
+     * Returned by {@link #nextBackOffMillis(IOException)} when the request must not be retried.
+     */
+    public static final long STOP = -1;
+
+    /**
+     * @return whether the error is transient, i.e. sending the same request again may succeed
+     */
+    public boolean isRetryable(IOException e);
+
+    /**
+     * Called after each failed request.
+     *
+     * @return how long to wait before retrying, or {@link #STOP} if the error is fatal or the
+     *         request failed too many times in a row
+     */
+    public long nextBackOffMillis(IOException e);
+
+    /**
+     * Called after each successful request, so the next failure starts with a short back-off.
+     */
+    public void reset();
+}
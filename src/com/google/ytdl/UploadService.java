@@ -1,198 +1,413 @@
-/*
- * Copyright (c) 2013 Google Inc.
- * 
- * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
- * in compliance with the License. You may obtain a copy of the License at
- * 
- * http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software distributed under the License
- * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
- * or implied. See the License for the specific language governing permissions and limitations under
- * the License.
- */
-
-package com.google.ytdl;
-
-import android.app.IntentService;
-import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
-import android.provider.MediaStore;
-import android.util.Log;
-
-import com.google.api.client.extensions.android.http.AndroidHttp;
-import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.gson.GsonFactory;
-import com.google.api.client.util.ExponentialBackOff;
-import com.google.api.services.youtube.YouTube;
-import com.google.common.collect.Lists;
-
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-
-/**
- * @author Ibrahim Ulukaya <ulukaya@google.com>
- *         <p/>
- *         Intent service to handle uploads.
- */
-public class UploadService extends IntentService {
-
-    /**
-     * defines how long we'll wait for a video to finish processing
-     */
-    private static final int PROCESSING_TIMEOUT_SEC = 60*20; // 20 minutes
-
-    /**
-     * controls how often to poll for video processing status
-     */
-    private static final int PROCESSING_POLL_INTERVAL_SEC = 60; 
-    /**
-     * how long to wait before re-trying the upload
-     */
-    private static final int UPLOAD_REATTEMPT_DELAY_SEC = 60;
-    /**
-     * processing start time
-     */
-    private static long mStartTime;
-    /**
-     * tracks the number of upload attempts
-     */
-    private int mUploadAttemptCount;
-
-
-    public UploadService() {
-        super("YTUploadService");
-    }
-
-    /**
-     * max number of retry attempts
-     */
-    private static final int MAX_RETRY = 3;
-    private static final String TAG = "UploadService";
-
-
-    GoogleAccountCredential credential;
-    final HttpTransport transport = AndroidHttp.newCompatibleTransport();
-    final JsonFactory jsonFactory = new GsonFactory();
-
-    @Override
-    protected void onHandleIntent(Intent intent) {
-        Uri fileUri = intent.getData();
-        String chosenAccountName = intent.getStringExtra(MainActivity.ACCOUNT_KEY);
-
-        credential =
-                GoogleAccountCredential.usingOAuth2(getApplicationContext(), Lists.newArrayList(Auth.SCOPES));
-        credential.setSelectedAccountName(chosenAccountName);
-        credential.setBackOff(new ExponentialBackOff());
-
-        String appName = getResources().getString(R.string.app_name);
-        final YouTube youtube =
-                new YouTube.Builder(transport, jsonFactory, credential).setApplicationName(
-                        appName).build();
-
-
-        try {
-            tryUploadAndShowSelectableNotification(fileUri, youtube);
-        } catch (InterruptedException e) {
-            // ignore
-        }
-    }
-
-    private void tryUploadAndShowSelectableNotification(final Uri fileUri, final YouTube youtube) throws InterruptedException {
-        while (true) {
-            Log.i(TAG, String.format("Uploading [%s] to YouTube", fileUri.toString()));
-            String videoId = tryUpload(fileUri, youtube);
-            if (videoId!=null) {
-                Log.i(TAG, String.format("Uploaded video with ID: %s", videoId));
-                tryShowSelectableNotification(videoId, youtube);
-                return;
-            } else {
-                Log.e(TAG, String.format("Failed to upload %s", fileUri.toString()));
-                if (mUploadAttemptCount++ < MAX_RETRY) {
-                    Log.i(TAG, String.format("Will retry to upload the video ([%d] out of [%d] reattempts)",
-                            mUploadAttemptCount, MAX_RETRY));
-                    zzz(UPLOAD_REATTEMPT_DELAY_SEC * 1000);
-                } else {
-                    Log.e(TAG,String.format("Giving up on trying to upload %s after %d attempts",
-                            fileUri.toString(), mUploadAttemptCount));
-                    return;
-                }
-            }
-        }
-    }
-
-    private void tryShowSelectableNotification(final String videoId, final YouTube youtube)
-            throws InterruptedException {
-        mStartTime = System.currentTimeMillis();
-        boolean processed = false;
-        while (!processed) {
-            processed = ResumableUpload.checkIfProcessed(videoId, youtube);
-            if (!processed) {
-                // wait a while
-                Log.d(TAG,String.format("Video [%s] is not processed yet, will retry after [%d] seconds",
-                        videoId, PROCESSING_POLL_INTERVAL_SEC));
-                if (!timeoutExpired(mStartTime, PROCESSING_TIMEOUT_SEC)) {
-                    zzz(PROCESSING_POLL_INTERVAL_SEC * 1000);
-                } else {
-                    Log.d(TAG,String.format("Bailing out polling for processing status after [%d] seconds",
-                            PROCESSING_TIMEOUT_SEC));
-                    return;
-                }
-            } else {
-                ResumableUpload.showSelectableNotification(videoId, getApplicationContext());
-                return;
-            }
-        }
-    }
-
-    private static void zzz(int duration) throws InterruptedException {
-        Log.d(TAG,String.format("Sleeping for [%d] ms ...", duration));
-        Thread.sleep(duration);
-        Log.d(TAG,String.format("Sleeping for [%d] ms ... done", duration));
-    }
-
-    private String tryUpload(Uri mFileUri, YouTube youtube) {
-        long fileSize;
-        InputStream fileInputStream = null;
-        String videoId = null;
-        try {
-            fileSize = getContentResolver().openFileDescriptor(mFileUri, "r").getStatSize();
-            fileInputStream = getContentResolver().openInputStream(mFileUri);
-            String[] proj = { MediaStore.Images.Media.DATA };
-            Cursor cursor = getContentResolver().query(mFileUri, proj, null, null, null);
-            int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-            cursor.moveToFirst();
-
-            videoId = ResumableUpload.upload(youtube, fileInputStream, fileSize, mFileUri, cursor.getString(column_index), getApplicationContext());
-            
-     
-
-
-
-        } catch (FileNotFoundException e) {
-            Log.e(getApplicationContext().toString(), e.getMessage());
-        } finally {
-            try {
-                fileInputStream.close();
-            } catch (IOException e) {
-                // ignore
-            }
-        }
-        return videoId;
-    }
-
-    private static boolean timeoutExpired(long startTime, int timeoutSeconds) {
-        long currTime = System.currentTimeMillis();
-        long elapsed = currTime - startTime;
-        if (elapsed>= timeoutSeconds * 1000) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-}
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.google.api.services.youtube.YouTube;
+import com.google.ytdl.util.FileChannelContent;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ibrahim Ulukaya <ulukaya@google.com>
+ *         <p/>
+ *         Service to handle uploads. Every requested upload becomes an {@link UploadTask} which
+ *         runs on a bounded pool of {@link Constants#MAX_CONCURRENT_UPLOADS} worker threads, so
+ *         a batch of clips is drained in parallel instead of one after the other.
+ *         <p/>
+ *         Uploads are recorded in the {@link UploadQueue} until they finish, and the service is
+ *         sticky: when it is restarted after its process died, or started with
+ *         {@link #ACTION_RESUME_UPLOADS}, it picks up every upload left in the queue.
+ *         <p/>
+ *         Uploaded videos are handed to a {@link ProcessingTracker}; the service keeps running
+ *         until they are processed too.
+ */
+public class UploadService extends Service {
+
+    /**
+     * how long to wait before re-trying the whole upload, once its chunk level retries ran out
+     */
+    private static final int UPLOAD_REATTEMPT_DELAY_SEC = 60;
+    /**
+     * how long an idle upload worker thread is kept around
+     */
+    private static final int WORKER_KEEP_ALIVE_SEC = 30;
+
+    /**
+     * max number of retry attempts
+     */
+    private static final int MAX_RETRY = 3;
+    private static final String TAG = "UploadService";
+
+    /**
+     * Resumes the uploads left in the {@link UploadQueue}.
+     */
+    public static final String ACTION_RESUME_UPLOADS = "com.google.ytdl.action.RESUME_UPLOADS";
+    /**
+     * Writes the {@link UploadMetricsStore} to a JSON file, in debug builds only:
+     * {@code adb shell am startservice -a com.google.ytdl.action.EXPORT_METRICS}
+     */
+    public static final String ACTION_EXPORT_METRICS = "com.google.ytdl.action.EXPORT_METRICS";
+
+    /**
+     * Lifecycle of a single upload handled by this service.
+     */
+    public enum UploadState {
+        QUEUED, UPLOADING, WAITING_TO_RETRY, COMPLETED, FAILED
+    }
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "YTUploadService #" + mCount.getAndIncrement());
+        }
+    };
+
+    /**
+     * Uploads currently owned by this service, keyed by the content Uri being uploaded.
+     */
+    private final Map<Uri, UploadTask> mUploads = new HashMap<Uri, UploadTask>();
+    private ThreadPoolExecutor mUploadExecutor;
+    private UploadQueue mUploadQueue;
+    private ProcessingTracker mProcessingTracker;
+    private Handler mHandler;
+    /**
+     * Reads and writes the {@link UploadQueue}, so the main thread never waits on its database
+     */
+    private HandlerThread mQueueThread;
+    private Handler mQueueHandler;
+    private int mLastStartId;
+    /**
+     * Start commands whose uploads haven't been scheduled yet, guarded by {@link #mUploads}
+     */
+    private int mPendingStarts;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mHandler = new Handler();
+        mUploadQueue = UploadQueue.getInstance(this);
+        mQueueThread = new HandlerThread("YTUploadQueue", Process.THREAD_PRIORITY_BACKGROUND);
+        mQueueThread.start();
+        mQueueHandler = new Handler(mQueueThread.getLooper());
+        mProcessingTracker = new ProcessingTracker(this, new ProcessingTracker.Listener() {
+            @Override
+            public void onIdle() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopIfIdle();
+                    }
+                });
+            }
+        });
+        mUploadExecutor = new ThreadPoolExecutor(Constants.MAX_CONCURRENT_UPLOADS,
+                Constants.MAX_CONCURRENT_UPLOADS, WORKER_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), sThreadFactory);
+        mUploadExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        synchronized (mUploads) {
+            mLastStartId = startId;
+            mPendingStarts++;
+        }
+        if (intent != null && ACTION_EXPORT_METRICS.equals(intent.getAction())) {
+            mQueueHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (BuildConfig.DEBUG) {
+                        try {
+                            UploadMetricsStore.getInstance(UploadService.this).exportJson();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Exporting the upload metrics failed", e);
+                        }
+                    }
+                    onStartHandled();
+                }
+            });
+        } else if (intent != null && intent.getData() != null) {
+            final Uri fileUri = intent.getData();
+            final String accountName = intent.getStringExtra(MainActivity.ACCOUNT_KEY);
+            mQueueHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mUploadQueue.enqueue(fileUri, accountName);
+                    schedule(fileUri, accountName);
+                    onStartHandled();
+                }
+            });
+        } else {
+            // Restarted by the system or explicitly asked to resume, pick up the queued uploads.
+            mQueueHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (UploadQueue.Entry entry : mUploadQueue.getAll()) {
+                        schedule(entry.fileUri, entry.accountName);
+                    }
+                    onStartHandled();
+                }
+            });
+        }
+        return START_STICKY;
+    }
+
+    /**
+     * Called on the queue thread once the uploads of a start command are scheduled.
+     */
+    private void onStartHandled() {
+        synchronized (mUploads) {
+            mPendingStarts--;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopIfIdle();
+            }
+        });
+    }
+
+    private void schedule(Uri fileUri, String accountName) {
+        synchronized (mUploads) {
+            if (mUploads.containsKey(fileUri)) {
+                Log.i(TAG, String.format("[%s] is already queued for upload", fileUri));
+                return;
+            }
+            UploadTask task = new UploadTask(fileUri, accountName);
+            mUploads.put(fileUri, task);
+            mUploadExecutor.execute(task);
+            Log.i(TAG, String.format("Queued [%s], [%d] uploads owned by the service", fileUri,
+                    mUploads.size()));
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        mQueueThread.quit();
+        mUploadExecutor.shutdownNow();
+        mProcessingTracker.quit();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void onUploadFinished(UploadTask task) {
+        // Removed right away, so the same file queued again from now on gets a new task
+        synchronized (mUploads) {
+            mUploads.remove(task.mFileUri);
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopIfIdle();
+            }
+        });
+    }
+
+    private void stopIfIdle() {
+        synchronized (mUploads) {
+            if (mUploads.isEmpty() && mPendingStarts == 0 && mProcessingTracker.isIdle()) {
+                stopSelf(mLastStartId);
+            }
+        }
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * A single upload, together with its own retry bookkeeping and notification.
+     */
+    private class UploadTask implements Runnable {
+        private final Uri mFileUri;
+        private final String mAccountName;
+        /**
+         * tracks the number of upload attempts, persisted in the {@link UploadQueue}
+         */
+        private int mUploadAttemptCount;
+        /**
+         * retries the failed requests of this upload
+         */
+        private final UploadRetryPolicy mRetryPolicy = new DecorrelatedJitterRetryPolicy();
+        private volatile UploadState mState = UploadState.QUEUED;
+        private UploadMetrics mMetrics;
+
+        UploadTask(Uri fileUri, String accountName) {
+            mFileUri = fileUri;
+            mAccountName = accountName;
+        }
+
+        private void setState(UploadState state) {
+            Log.d(TAG, String.format("[%s] %s -> %s", mFileUri, mState, state));
+            mState = state;
+            mMetrics.onStateChanged(state);
+        }
+
+        @Override
+        public void run() {
+            UploadQueue.Entry queued = mUploadQueue.get(mFileUri);
+            if (queued == null) {
+                onUploadFinished(this);
+                return;
+            }
+            mUploadAttemptCount = queued.attempts;
+            mMetrics = new UploadMetrics(mFileUri.toString(),
+                    ChunkSizeController.getNetworkType(UploadService.this));
+            mMetrics.onStateChanged(mState);
+            try {
+                tryUploadAndShowSelectableNotification(
+                        YouTubeClientFactory.getInstance(UploadService.this).getYouTube(mAccountName));
+            } catch (InterruptedException e) {
+                // ignore
+            } finally {
+                mMetrics.onFinished(mState);
+                UploadMetricsStore.getInstance(UploadService.this).record(mMetrics);
+                onUploadFinished(this);
+            }
+        }
+
+        private void tryUploadAndShowSelectableNotification(final YouTube youtube) throws InterruptedException {
+            while (true) {
+                Log.i(TAG, String.format("Uploading [%s] to YouTube", mFileUri.toString()));
+                setState(UploadState.UPLOADING);
+                String videoId = null;
+                mRetryPolicy.reset();
+                try {
+                    videoId = tryUpload(youtube);
+                } catch (IOException e) {
+                    if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+                        // The service is shutting down, keep the upload queued.
+                        throw new InterruptedException();
+                    }
+                    if (!mRetryPolicy.isRetryable(e)) {
+                        // Auth, quota and other client errors fail the same way on every attempt.
+                        Log.e(TAG, String.format("Giving up on trying to upload %s after fatal error: %s",
+                                mFileUri.toString(), e.getMessage()));
+                        mUploadQueue.remove(mFileUri);
+                        setState(UploadState.FAILED);
+                        return;
+                    }
+                }
+                if (videoId!=null) {
+                    Log.i(TAG, String.format("Uploaded video with ID: %s", videoId));
+                    mUploadQueue.remove(mFileUri);
+                    // Processing is tracked apart, so the next upload can start right away.
+                    mProcessingTracker.track(videoId, mAccountName, youtube);
+                    setState(UploadState.COMPLETED);
+                    return;
+                } else {
+                    Log.e(TAG, String.format("Failed to upload %s", mFileUri.toString()));
+                    if (!isConnected()) {
+                        // Keep the upload queued, UploadRecoveryReceiver resumes it once
+                        // connectivity is back.
+                        Log.i(TAG, String.format("No connectivity, suspending upload of %s",
+                                mFileUri.toString()));
+                        setState(UploadState.QUEUED);
+                        return;
+                    }
+                    if (mUploadAttemptCount++ < MAX_RETRY) {
+                        mUploadQueue.setAttempts(mFileUri, mUploadAttemptCount);
+                        Log.i(TAG, String.format("Will retry to upload the video ([%d] out of [%d] reattempts)",
+                                mUploadAttemptCount, MAX_RETRY));
+                        setState(UploadState.WAITING_TO_RETRY);
+                        zzz(UPLOAD_REATTEMPT_DELAY_SEC * 1000);
+                    } else {
+                        Log.e(TAG,String.format("Giving up on trying to upload %s after %d attempts",
+                                mFileUri.toString(), mUploadAttemptCount));
+                        mUploadQueue.remove(mFileUri);
+                        setState(UploadState.FAILED);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private String tryUpload(YouTube youtube) throws IOException {
+            FileChannelContent mediaContent = null;
+            String videoId = null;
+            try {
+                // A single descriptor provides both the size and the data of the file.
+                ParcelFileDescriptor fileDescriptor =
+                        getContentResolver().openFileDescriptor(mFileUri, "r");
+                mediaContent = new FileChannelContent(ResumableUpload.VIDEO_FILE_FORMAT, fileDescriptor);
+                String[] proj = { MediaStore.Images.Media.DATA };
+                Cursor cursor = getContentResolver().query(mFileUri, proj, null, null, null);
+                int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
+                cursor.moveToFirst();
+                String path = cursor.getString(column_index);
+                cursor.close();
+
+                videoId = ResumableUpload.upload(youtube, mediaContent, mFileUri, path, getApplicationContext(),
+                        mRetryPolicy, mMetrics);
+            } catch (FileNotFoundException e) {
+                Log.e(getApplicationContext().toString(), e.getMessage());
+            } finally {
+                try {
+                    if (mediaContent != null) {
+                        mediaContent.close();
+                    }
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            return videoId;
+        }
+    }
+
+    private static void zzz(int duration) throws InterruptedException {
+        Log.d(TAG,String.format("Sleeping for [%d] ms ...", duration));
+        Thread.sleep(duration);
+        Log.d(TAG,String.format("Sleeping for [%d] ms ... done", duration));
+    }
+
+}
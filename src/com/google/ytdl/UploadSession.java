@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.util.Log;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.googleapis.media.MediaHttpUploader.UploadState;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Video;
+import com.google.ytdl.util.FileChannelContent;
+import com.google.ytdl.util.ReadAheadReader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Client side of the YouTube resumable upload protocol, see
+ * https://developers.google.com/youtube/v3/guides/using_resumable_upload_protocol
+ * <p/>
+ * Unlike {@link MediaHttpUploader}, a session can be created from a session URI that
+ * was persisted earlier. In that case the server is asked for the range it already
+ * committed and the upload continues from there instead of from byte zero.
+ */
+public class UploadSession {
+    private static final String TAG = "UploadSession";
+
+    /**
+     * Returned by the server for a chunk that was stored while more bytes are still expected.
+     */
+    private static final int STATUS_CODE_RESUME_INCOMPLETE = 308;
+    private static final int STATUS_CODE_GONE = 410;
+
+    /**
+     * Receives a callback whenever the state of the session or the committed byte count changes.
+     */
+    public interface ProgressListener {
+        public void progressChanged(UploadSession session) throws IOException;
+    }
+
+    private final YouTube mYouTube;
+    private final YouTube.Videos.Insert mInsert;
+    private final HttpContent mMetadata;
+    private final String mMediaType;
+    private final long mMediaLength;
+    private ProgressListener mProgressListener;
+    private ChunkSizeController mChunkSizeController;
+    private UploadRetryPolicy mRetryPolicy;
+    private UploadMetrics mMetrics;
+    private int mChunkSize = MediaHttpUploader.DEFAULT_CHUNK_SIZE;
+    private UploadState mUploadState = UploadState.NOT_STARTED;
+    private String mSessionUri;
+    private long mBytesUploaded;
+    private int mRetryCount;
+    private long mBackOffMillis;
+
+    /**
+     * @param youtube     client whose request factory (and therefore credential) is used
+     * @param insert      the videos.insert request describing the part and metadata to upload
+     * @param mediaType   MIME type of the media
+     * @param mediaLength length of the media in bytes
+     * @param sessionUri  a session URI returned by an earlier initiation, or null to start a new
+     *                    session
+     */
+    public UploadSession(YouTube youtube, YouTube.Videos.Insert insert, String mediaType,
+                         long mediaLength, String sessionUri) {
+        mYouTube = youtube;
+        mInsert = insert;
+        mMetadata = insert.getHttpContent();
+        mMediaType = mediaType;
+        mMediaLength = mediaLength;
+        mSessionUri = sessionUri;
+    }
+
+    public UploadSession setProgressListener(ProgressListener listener) {
+        mProgressListener = listener;
+        return this;
+    }
+
+    public UploadSession setChunkSize(int chunkSize) {
+        if (chunkSize <= 0 || chunkSize % MediaHttpUploader.MINIMUM_CHUNK_SIZE != 0) {
+            throw new IllegalArgumentException("chunkSize must be a positive multiple of "
+                    + MediaHttpUploader.MINIMUM_CHUNK_SIZE);
+        }
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Lets the given controller pick the size of every chunk from the measured throughput,
+     * instead of using a fixed chunk size.
+     */
+    public UploadSession setChunkSizeController(ChunkSizeController controller) {
+        mChunkSizeController = controller;
+        return this;
+    }
+
+    /**
+     * Retries failed requests as the given policy says. Without a policy the first failure ends
+     * the upload.
+     */
+    public UploadSession setRetryPolicy(UploadRetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Records the timings of the session into the given metrics.
+     */
+    public UploadSession setMetrics(UploadMetrics metrics) {
+        mMetrics = metrics;
+        if (metrics != null) {
+            metrics.onMediaLength(mMediaLength);
+        }
+        return this;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public UploadState getUploadState() {
+        return mUploadState;
+    }
+
+    /**
+     * @return the session URI, available once the initiation has completed
+     */
+    public String getSessionUri() {
+        return mSessionUri;
+    }
+
+    /**
+     * @return the number of bytes the server has confirmed to have received
+     */
+    public long getNumBytesUploaded() {
+        return mBytesUploaded;
+    }
+
+    public long getMediaLength() {
+        return mMediaLength;
+    }
+
+    /**
+     * @return the number of failed requests that were retried
+     */
+    public int getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * @return the total time spent waiting before retries
+     */
+    public long getBackOffMillis() {
+        return mBackOffMillis;
+    }
+
+    public double getProgress() {
+        return mMediaLength == 0 ? 0 : (double) mBytesUploaded / mMediaLength;
+    }
+
+    /**
+     * Uploads the media, resuming the existing session if there is one. Each chunk is read
+     * straight from its position in the file, so resuming never re-reads committed bytes, and the
+     * file is read ahead of the chunk being sent so disk reads overlap with network sends.
+     * <p/>
+     * A failed request is retried as the {@link UploadRetryPolicy} says. Before a retry the server
+     * is asked which bytes it committed, so only the failed chunk is sent again.
+     *
+     * @param media the whole media to upload
+     * @return the inserted video, as returned by the server
+     */
+    public Video upload(FileChannelContent media) throws IOException {
+        Video video = null;
+        ReadAheadReader readAhead = null;
+        boolean synced = false;
+        try {
+            while (video == null) {
+                try {
+                    if (!synced) {
+                        video = synchronize();
+                        synced = true;
+                        if (video != null) {
+                            updateStateAndNotifyListener(UploadState.MEDIA_COMPLETE);
+                            break;
+                        }
+                        if (readAhead == null) {
+                            // Read the file ahead on a background thread while chunks are being
+                            // sent.
+                            readAhead = new ReadAheadReader(media, mBytesUploaded);
+                        }
+                    }
+                    video = uploadChunk(readAhead);
+                    if (mRetryPolicy != null) {
+                        mRetryPolicy.reset();
+                    }
+                } catch (IOException e) {
+                    backOff(e);
+                    synced = false;
+                }
+            }
+            return video;
+        } finally {
+            if (readAhead != null) {
+                readAhead.close();
+                Log.d(TAG, String.format("Read-ahead of session [%s]: %s", mSessionUri, readAhead));
+            }
+        }
+    }
+
+    /**
+     * Resumes the existing session, or starts a new one if there is none or it expired.
+     *
+     * @return the uploaded video if the server already has the whole media, null otherwise
+     */
+    private Video synchronize() throws IOException {
+        if (mSessionUri != null) {
+            Video video = queryCommittedRange();
+            if (video != null) {
+                return video;
+            }
+        }
+        if (mSessionUri == null) {
+            initiate();
+        }
+        return null;
+    }
+
+    /**
+     * Sends the next chunk, starting right after the last committed byte.
+     *
+     * @return the uploaded video if this was the last chunk, null otherwise
+     */
+    private Video uploadChunk(ReadAheadReader readAhead) throws IOException {
+        if (mChunkSizeController != null) {
+            mChunkSize = mChunkSizeController.getChunkSize();
+        }
+        long chunkLength = Math.min(mChunkSize, mMediaLength - mBytesUploaded);
+        HttpRequest request = mYouTube.getRequestFactory().buildPutRequest(
+                new GenericUrl(mSessionUri), readAhead.slice(mBytesUploaded, chunkLength));
+        request.getHeaders().setContentRange(chunkLength == 0
+                ? "bytes */" + mMediaLength
+                : "bytes " + mBytesUploaded + "-" + (mBytesUploaded + chunkLength - 1) + "/"
+                + mMediaLength);
+        long chunkStart = System.currentTimeMillis();
+        HttpResponse response;
+        try {
+            response = executeSessionRequest(request);
+        } catch (IOException e) {
+            if (mChunkSizeController != null) {
+                mChunkSizeController.onChunkFailed();
+            }
+            throw e;
+        }
+        long chunkMillis = System.currentTimeMillis() - chunkStart;
+        // Status queries send no bytes and the short tail of the media says nothing about the
+        // throughput, only full chunks size the next one.
+        if (mChunkSizeController != null && chunkLength > 0 && chunkLength == mChunkSize) {
+            mChunkSizeController.onChunkCompleted(chunkLength, chunkMillis);
+        }
+        if (mMetrics != null && chunkLength > 0) {
+            mMetrics.onChunkCompleted(chunkLength, chunkMillis);
+        }
+        if (response.isSuccessStatusCode()) {
+            mBytesUploaded = mMediaLength;
+            updateStateAndNotifyListener(UploadState.MEDIA_COMPLETE);
+            return response.parseAs(Video.class);
+        }
+        if (chunkLength == 0) {
+            response.disconnect();
+            throw new IOException(String.format(
+                    "Session [%s] is incomplete although all [%d] bytes were sent",
+                    mSessionUri, mMediaLength));
+        }
+        // The server may keep fewer bytes than it was sent, the next chunk starts right after the
+        // last committed byte.
+        mBytesUploaded = getNextByteIndex(response.getHeaders().getRange());
+        response.disconnect();
+        updateStateAndNotifyListener(UploadState.MEDIA_IN_PROGRESS);
+        return null;
+    }
+
+    /**
+     * Waits before retrying a failed request, or rethrows the error if it must not be retried.
+     */
+    private void backOff(IOException e) throws IOException {
+        long backOffMillis = mRetryPolicy == null ? UploadRetryPolicy.STOP
+                : mRetryPolicy.nextBackOffMillis(e);
+        if (backOffMillis == UploadRetryPolicy.STOP) {
+            throw e;
+        }
+        mRetryCount++;
+        mBackOffMillis += backOffMillis;
+        if (mMetrics != null) {
+            mMetrics.onRetry(backOffMillis);
+        }
+        Log.w(TAG, String.format("Retry [%d] of session [%s] in [%d] ms after: %s", mRetryCount,
+                mSessionUri, backOffMillis, e.getMessage()));
+        try {
+            Thread.sleep(backOffMillis);
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Starts a new session and records its URI.
+     */
+    private void initiate() throws IOException {
+        updateStateAndNotifyListener(UploadState.INITIATION_STARTED);
+        GenericUrl initiationUrl = mInsert.buildHttpRequestUrl();
+        initiationUrl.put("uploadType", "resumable");
+        HttpRequest request = mYouTube.getRequestFactory().buildPostRequest(initiationUrl, mMetadata);
+        HttpHeaders headers = request.getHeaders();
+        headers.set("X-Upload-Content-Type", mMediaType);
+        headers.set("X-Upload-Content-Length", mMediaLength);
+        long initiationStart = System.currentTimeMillis();
+        HttpResponse response = executeSessionRequest(request);
+        if (mMetrics != null) {
+            mMetrics.onInitiated(System.currentTimeMillis() - initiationStart);
+        }
+        if (!response.isSuccessStatusCode()) {
+            throw GoogleJsonResponseException.from(mYouTube.getJsonFactory(), response);
+        }
+        mSessionUri = response.getHeaders().getLocation();
+        mBytesUploaded = 0;
+        response.disconnect();
+        Log.d(TAG, String.format("Started upload session [%s]", mSessionUri));
+        updateStateAndNotifyListener(UploadState.INITIATION_COMPLETE);
+    }
+
+    /**
+     * Asks the server which bytes of an existing session it has already committed.
+     *
+     * @return the uploaded video if the server already has the whole media, null otherwise
+     */
+    private Video queryCommittedRange() throws IOException {
+        HttpRequest request = mYouTube.getRequestFactory().buildPutRequest(
+                new GenericUrl(mSessionUri), new EmptyContent());
+        request.getHeaders().setContentRange("bytes */" + mMediaLength);
+        request.setParser(mYouTube.getObjectParser());
+        request.setThrowExceptionOnExecuteError(false);
+        request.setFollowRedirects(false);
+        HttpResponse response = request.execute();
+        int statusCode = response.getStatusCode();
+        if (response.isSuccessStatusCode()) {
+            mBytesUploaded = mMediaLength;
+            return response.parseAs(Video.class);
+        }
+        if (statusCode == STATUS_CODE_RESUME_INCOMPLETE) {
+            mBytesUploaded = getNextByteIndex(response.getHeaders().getRange());
+            response.disconnect();
+            Log.d(TAG, String.format("Resuming session [%s] at byte [%d]", mSessionUri,
+                    mBytesUploaded));
+            // After a retry the upload is still in progress, only a resumed session is
+            // (re)initiated.
+            updateStateAndNotifyListener(mUploadState == UploadState.MEDIA_IN_PROGRESS
+                    ? UploadState.MEDIA_IN_PROGRESS : UploadState.INITIATION_COMPLETE);
+        } else if (statusCode == HttpStatusCodes.STATUS_CODE_NOT_FOUND
+                || statusCode == STATUS_CODE_GONE) {
+            // The session expired, the caller will start a new one.
+            Log.d(TAG, String.format("Session [%s] expired", mSessionUri));
+            response.disconnect();
+            mSessionUri = null;
+            mBytesUploaded = 0;
+        } else {
+            throw GoogleJsonResponseException.from(mYouTube.getJsonFactory(), response);
+        }
+        return null;
+    }
+
+    private HttpResponse executeSessionRequest(HttpRequest request) throws IOException {
+        request.setParser(mYouTube.getObjectParser());
+        request.setThrowExceptionOnExecuteError(false);
+        request.setFollowRedirects(false);
+        HttpResponse response = request.execute();
+        if (!response.isSuccessStatusCode()
+                && response.getStatusCode() != STATUS_CODE_RESUME_INCOMPLETE) {
+            throw GoogleJsonResponseException.from(mYouTube.getJsonFactory(), response);
+        }
+        return response;
+    }
+
+    /**
+     * @param rangeHeader Range header of a 308 response, such as "bytes=0-1048575"
+     * @return index of the first byte the server has not committed yet
+     */
+    private static long getNextByteIndex(String rangeHeader) {
+        if (rangeHeader == null) {
+            return 0L;
+        }
+        return Long.parseLong(rangeHeader.substring(rangeHeader.indexOf('-') + 1)) + 1;
+    }
+
+    private void updateStateAndNotifyListener(UploadState uploadState) throws IOException {
+        mUploadState = uploadState;
+        if (mProgressListener != null) {
+            mProgressListener.progressChanged(this);
+        }
+    }
+}
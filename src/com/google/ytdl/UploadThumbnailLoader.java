@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.MediaStore.Video.Thumbnails;
+import android.util.Log;
+
+import com.google.ytdl.util.ImageCache;
+
+import java.io.File;
+
+/**
+ * Extracts the thumbnails shown in upload notifications on a background thread, so
+ * decoding a video frame never delays the upload itself.
+ * <p/>
+ * Thumbnails are kept in an {@link ImageCache}, in memory and on disk, keyed by the path
+ * and modification time of the video. Retries and re-uploads of an unchanged file reuse
+ * the frame decoded the first time.
+ */
+public class UploadThumbnailLoader {
+    private static final String TAG = "UploadThumbnailLoader";
+    private static final String CACHE_DIR = "upload_thumbs";
+    private static final int MEM_CACHE_SIZE = 1024; // 1MB
+
+    private static UploadThumbnailLoader sInstance;
+
+    /**
+     * Receives the thumbnail, on the loader thread unless it was in the memory cache.
+     */
+    public interface Callback {
+        public void onThumbnailLoaded(Bitmap thumbnail);
+    }
+
+    private final Context mContext;
+    private final ImageCache mImageCache;
+    private final Handler mHandler;
+
+    public static synchronized UploadThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UploadThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UploadThumbnailLoader(Context context) {
+        mContext = context;
+        ImageCache.ImageCacheParams params = new ImageCache.ImageCacheParams(context, CACHE_DIR);
+        params.memCacheSize = MEM_CACHE_SIZE;
+        mImageCache = new ImageCache(params);
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mImageCache.initDiskCache();
+            }
+        });
+    }
+
+    /**
+     * Loads the thumbnail of the video at the given path. The callback isn't called if no
+     * thumbnail can be extracted.
+     */
+    public void load(final String path, final Callback callback) {
+        if (path == null) {
+            return;
+        }
+        final String key = path + "@" + new File(path).lastModified();
+        BitmapDrawable cached = mImageCache.getBitmapFromMemCache(key);
+        if (cached != null) {
+            callback.onThumbnailLoaded(cached.getBitmap());
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap thumbnail = mImageCache.getBitmapFromDiskCache(key);
+                if (thumbnail == null) {
+                    long start = System.currentTimeMillis();
+                    thumbnail = ThumbnailUtils.createVideoThumbnail(path, Thumbnails.MICRO_KIND);
+                    if (thumbnail == null) {
+                        Log.w(TAG, String.format("No thumbnail for [%s]", path));
+                        return;
+                    }
+                    Log.d(TAG, String.format("Extracted thumbnail of [%s] in [%d] ms", path,
+                            System.currentTimeMillis() - start));
+                }
+                mImageCache.addBitmapToCache(key,
+                        new BitmapDrawable(mContext.getResources(), thumbnail));
+                callback.onThumbnailLoaded(thumbnail);
+            }
+        });
+    }
+}
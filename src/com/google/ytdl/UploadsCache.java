@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.ytdl.util.ImageCache;
+import com.google.ytdl.util.VideoData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last known uploads list of each account in the files directory, so the list
+ * can be shown on startup before the network answers.
+ * <p/>
+ * The list is stored in a small binary format, see {@link VideoData#writeTo}. Reading is
+ * synchronous and meant for the first frame; writes go to a background thread and replace
+ * the file atomically, so a crash never leaves a half written list behind.
+ */
+public class UploadsCache {
+    private static final String TAG = "UploadsCache";
+    private static final int FORMAT_VERSION = 4;
+    private static final String FILE_PREFIX = "uploads_";
+    private static final String FILE_SUFFIX = ".bin";
+
+    private static UploadsCache sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    public static synchronized UploadsCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UploadsCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UploadsCache(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * @return the cached uploads of the given account, empty if nothing or an unreadable list was
+     *         cached
+     */
+    public List<VideoData> read(String accountName) {
+        File file = getFile(accountName);
+        if (!file.exists()) {
+            return new ArrayList<VideoData>();
+        }
+        long start = SystemClock.elapsedRealtime();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return new ArrayList<VideoData>();
+            }
+            int count = in.readInt();
+            List<VideoData> videos = new ArrayList<VideoData>(count);
+            for (int i = 0; i < count; i++) {
+                videos.add(VideoData.readFrom(in));
+            }
+            Log.d(TAG, String.format("Read [%d] videos in [%d] ms", count,
+                    SystemClock.elapsedRealtime() - start));
+            return videos;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading the uploads cache", e);
+            file.delete();
+            return new ArrayList<VideoData>();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replaces the cached uploads of the given account in the background. The list is copied, so
+     * the caller may keep changing it.
+     */
+    public void write(final String accountName, List<VideoData> videos) {
+        final List<VideoData> snapshot = new ArrayList<VideoData>(videos);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                writeNow(accountName, snapshot);
+            }
+        });
+    }
+
+    private void writeNow(String accountName, List<VideoData> videos) {
+        File file = getFile(accountName);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(videos.size());
+            for (VideoData video : videos) {
+                video.writeTo(out);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing the uploads cache", e);
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private File getFile(String accountName) {
+        return new File(mContext.getFilesDir(),
+                FILE_PREFIX + ImageCache.hashKeyForDisk(accountName) + FILE_SUFFIX);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing the uploads cache", e);
+            }
+        }
+    }
+}
@@ -32,13 +32,17 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.GridView;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Ibrahim Ulukaya <ulukaya@google.com>
@@ -49,11 +53,46 @@ public class UploadsListFragment extends Fragment implements ConnectionCallbacks
         OnConnectionFailedListener {
 
     private Callbacks mCallbacks;
-    private ImageWorker mImageFetcher;
-    private PlusClient mPlusClient;
+    // Package-private for UploadsListFragmentTest
+    ImageWorker mImageFetcher;
+    PlusClient mPlusClient;
 
     private static final String TAG = UploadsListFragment.class.getName();
-	private GridView mGridView;
+    /**
+     * More videos are requested once fewer than this many are left below the visible ones.
+     */
+    private static final int LOAD_MORE_THRESHOLD = 12;
+	// Package-private for UploadsListFragmentTest
+	GridView mGridView;
+    private int mScrollState = AbsListView.OnScrollListener.SCROLL_STATE_IDLE;
+    /**
+     * Whether {@link #mInitPlusButtons} is posted and didn't run yet, so binding a cell posts
+     * it at most once per layout pass
+     */
+    private boolean mInitPlusButtonsScheduled;
+
+    /**
+     * Initializes the +1 buttons of the visible cells that are waiting for it, in one pass once
+     * scrolling settled.
+     */
+    private final Runnable mInitPlusButtons = new Runnable() {
+        @Override
+        public void run() {
+            mInitPlusButtonsScheduled = false;
+            if (mGridView == null || !(mGridView.getAdapter() instanceof UploadedVideoAdapter)
+                    || mScrollState != AbsListView.OnScrollListener.SCROLL_STATE_IDLE
+                    || !mPlusClient.isConnected()) {
+                return;
+            }
+            UploadedVideoAdapter adapter = (UploadedVideoAdapter) mGridView.getAdapter();
+            for (int i = 0; i < mGridView.getChildCount(); i++) {
+                Object tag = mGridView.getChildAt(i).getTag();
+                if (tag instanceof ViewHolder) {
+                    adapter.initPlusButton((ViewHolder) tag);
+                }
+            }
+        }
+    };
 	
     public UploadsListFragment() {
     }
@@ -71,23 +110,66 @@ public class UploadsListFragment extends Fragment implements ConnectionCallbacks
                              Bundle savedInstanceState) {
         View listView = inflater.inflate(R.layout.list_fragment, container, false);
         mGridView = (GridView) listView.findViewById(R.id.grid_view);
+        mInitPlusButtonsScheduled = false;
         TextView emptyView = (TextView) listView.findViewById(android.R.id.empty);
         mGridView.setEmptyView(emptyView);
+        mGridView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                mScrollState = scrollState;
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    scheduleInitPlusButtons();
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (mCallbacks != null && totalItemCount > 0
+                        && firstVisibleItem + visibleItemCount
+                        >= totalItemCount - LOAD_MORE_THRESHOLD) {
+                    mCallbacks.onScrolledNearEnd();
+                }
+            }
+        });
         return listView;
     }
 
+    /**
+     * Runs {@link #mInitPlusButtons} after the pending layout pass, unless scrolling or
+     * already scheduled.
+     */
+    private void scheduleInitPlusButtons() {
+        if (mGridView != null && !mInitPlusButtonsScheduled
+                && mScrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
+            mInitPlusButtonsScheduled = true;
+            mGridView.post(mInitPlusButtons);
+        }
+    }
+
     @Override
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         setProfileInfo();
     }
 
+    /**
+     * Shows the given videos. The list is copied, and only the cells whose video changed are
+     * bound again; the scroll position is kept.
+     */
     public void setVideos(List<VideoData> videos) {
         if (!isAdded()) {
             return;
         }
 
-       mGridView.setAdapter(new UploadedVideoAdapter(videos));
+        UploadedVideoAdapter adapter = (UploadedVideoAdapter) mGridView.getAdapter();
+        if (adapter == null) {
+            adapter = new UploadedVideoAdapter();
+            adapter.update(videos);
+            mGridView.setAdapter(adapter);
+        } else {
+            adapter.update(videos);
+        }
     }
 
     public void setProfileInfo() {
@@ -124,7 +206,7 @@ public class UploadsListFragment extends Fragment implements ConnectionCallbacks
     @Override
     public void onConnected(Bundle bundle) {
         if (mGridView.getAdapter() != null) {
-            ((UploadedVideoAdapter) mGridView.getAdapter()).notifyDataSetChanged();
+            ((UploadedVideoAdapter) mGridView.getAdapter()).onPlusConnected();
         }
 
         setProfileInfo();
@@ -155,11 +237,78 @@ public class UploadsListFragment extends Fragment implements ConnectionCallbacks
         }
     }
 
-    private class UploadedVideoAdapter extends BaseAdapter {
-        private List<VideoData> mVideos;
+    /**
+     * Shows a copy of the list it was last given. A new list is compared with the copy by YouTube
+     * id: if nothing was inserted, removed, changed or moved the grid isn't touched, otherwise it
+     * is told to refresh. Item ids are stable, so the grid keeps its position, and cells still
+     * showing the same video keep their binding, so only changed cells are bound again and only
+     * their thumbnails reloaded.
+     * <p/>
+     * Cells keep their child views in a {@link ViewHolder} and share one click listener, so
+     * binding a cell doesn't allocate. Initializing a +1 button is a call into Play services, so
+     * it isn't done while binding: the button is hidden until scrolling settles and then
+     * initialized together with those of the other visible cells.
+     */
+    class UploadedVideoAdapter extends BaseAdapter {
+        private List<VideoData> mVideos = new ArrayList<VideoData>();
+        private final Map<String, Long> mStableIds = new HashMap<String, Long>();
+        private long mNextStableId;
+        /**
+         * Incremented on every connection of the PlusClient the +1 buttons are initialized with
+         */
+        private int mPlusGeneration;
+
+        private final View.OnClickListener mOnClickListener = new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                ViewHolder holder = (ViewHolder) view.getTag();
+                mCallbacks.onVideoSelected(mVideos.get(holder.position));
+            }
+        };
+
+        /**
+         * @return whether the shown videos changed
+         */
+        boolean update(List<VideoData> videos) {
+            Map<String, VideoData> removed = new HashMap<String, VideoData>(mVideos.size() * 2);
+            for (VideoData video : mVideos) {
+                removed.put(video.getYouTubeId(), video);
+            }
+            int inserted = 0;
+            int changed = 0;
+            boolean moved = false;
+            for (int i = 0; i < videos.size(); i++) {
+                VideoData video = videos.get(i);
+                VideoData old = removed.remove(video.getYouTubeId());
+                if (old == null) {
+                    inserted++;
+                } else if (old != video && !old.hasSameContent(video)) {
+                    changed++;
+                }
+                if (!moved && (i >= mVideos.size()
+                        || !mVideos.get(i).getYouTubeId().equals(video.getYouTubeId()))) {
+                    moved = true;
+                }
+            }
+            if (inserted == 0 && changed == 0 && removed.isEmpty() && !moved) {
+                return false;
+            }
+            Log.d(TAG, String.format("Uploads changed: [%d] inserted, [%d] removed, [%d] changed",
+                    inserted, removed.size(), changed));
+            for (String youtubeId : removed.keySet()) {
+                mStableIds.remove(youtubeId);
+            }
+            mVideos = new ArrayList<VideoData>(videos);
+            notifyDataSetChanged();
+            return true;
+        }
 
-        private UploadedVideoAdapter(List<VideoData> videos) {
-            mVideos = videos;
+        /**
+         * Initializes the +1 buttons of the shown cells with the newly connected client.
+         */
+        void onPlusConnected() {
+            mPlusGeneration++;
+            scheduleInitPlusButtons();
         }
 
         @Override
@@ -172,37 +321,92 @@ public class UploadsListFragment extends Fragment implements ConnectionCallbacks
             return mVideos.get(i);
         }
 
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
         @Override
         public long getItemId(int i) {
-            return mVideos.get(i).getYouTubeId().hashCode();
+            String youtubeId = mVideos.get(i).getYouTubeId();
+            Long id = mStableIds.get(youtubeId);
+            if (id == null) {
+                id = mNextStableId++;
+                mStableIds.put(youtubeId, id);
+            }
+            return id;
         }
 
         @Override
-        public View getView(final int position, View convertView,
-                            ViewGroup container) {
+        public View getView(int position, View convertView, ViewGroup container) {
+            ViewHolder holder;
             if (convertView == null) {
-                convertView = LayoutInflater.from(getActivity()).inflate(
+                convertView = LayoutInflater.from(container.getContext()).inflate(
                         R.layout.list_item, container, false);
+                holder = new ViewHolder(convertView);
+                holder.mainTarget.setTag(holder);
+                holder.mainTarget.setOnClickListener(mOnClickListener);
+                convertView.setTag(holder);
+            } else {
+                holder = (ViewHolder) convertView.getTag();
             }
+            holder.position = position;
 
             VideoData video = mVideos.get(position);
-            ((TextView) convertView.findViewById(android.R.id.text1))
-                    .setText(video.getTitle());
-            mImageFetcher.loadImage(video.getThumbUri(),
-                    (ImageView) convertView.findViewById(R.id.thumbnail));
-            if (mPlusClient.isConnected()) {
-                ((PlusOneButton) convertView.findViewById(R.id.plus_button))
-                        .initialize(mPlusClient, video.getWatchUri(), null);
-            }
-            convertView.findViewById(R.id.main_target).setOnClickListener(
-                    new View.OnClickListener() {
-                        @Override
-                        public void onClick(View view) {
-                            mCallbacks.onVideoSelected(mVideos.get(position));
-                        }
-                    });
+            if (holder.video != video
+                    && (holder.video == null || !holder.video.hasSameContent(video))) {
+                if (holder.video == null
+                        || !holder.video.getYouTubeId().equals(video.getYouTubeId())) {
+                    mImageFetcher.loadImage(video.getThumbUri(), holder.thumbnail);
+                }
+                holder.title.setText(video.getTitle());
+                holder.video = video;
+            }
+            if (needsPlusButton(holder)) {
+                holder.plusButton.setVisibility(View.INVISIBLE);
+                scheduleInitPlusButtons();
+            }
             return convertView;
         }
+
+        private boolean needsPlusButton(ViewHolder holder) {
+            return holder.plusGeneration != mPlusGeneration
+                    || !holder.video.getYouTubeId().equals(holder.plusVideoId);
+        }
+
+        /**
+         * Initializes the +1 button of the cell, unless it already is for its video.
+         */
+        void initPlusButton(ViewHolder holder) {
+            if (holder.video == null || !needsPlusButton(holder)) {
+                return;
+            }
+            holder.plusButton.initialize(mPlusClient, holder.video.getWatchUri(), null);
+            holder.plusButton.setVisibility(View.VISIBLE);
+            holder.plusVideoId = holder.video.getYouTubeId();
+            holder.plusGeneration = mPlusGeneration;
+        }
+    }
+
+    /**
+     * Child views of a cell and what they currently show.
+     */
+    static class ViewHolder {
+        final TextView title;
+        final ImageView thumbnail;
+        final PlusOneButton plusButton;
+        final View mainTarget;
+        int position;
+        VideoData video;
+        String plusVideoId;
+        int plusGeneration = -1;
+
+        ViewHolder(View view) {
+            title = (TextView) view.findViewById(android.R.id.text1);
+            thumbnail = (ImageView) view.findViewById(R.id.thumbnail);
+            plusButton = (PlusOneButton) view.findViewById(R.id.plus_button);
+            mainTarget = view.findViewById(R.id.main_target);
+        }
     }
 
     @Override
@@ -229,5 +433,10 @@ public class UploadsListFragment extends Fragment implements ConnectionCallbacks
         public void onVideoSelected(VideoData video);
 
         public void onConnected(String connectedAccountName);
+
+        /**
+         * Called while the user scrolls close to the end of the loaded videos.
+         */
+        public void onScrolledNearEnd();
     }
 }
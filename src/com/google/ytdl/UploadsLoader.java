@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.ChannelListResponse;
+import com.google.api.services.youtube.model.PlaylistItem;
+import com.google.api.services.youtube.model.PlaylistItemListResponse;
+import com.google.api.services.youtube.model.Video;
+import com.google.api.services.youtube.model.VideoListResponse;
+import com.google.ytdl.ChannelMetadataCache.ChannelMetadata;
+import com.google.ytdl.util.VideoData;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the uploads playlist of an account, several pages at a time.
+ * <p/>
+ * Playlist pages have to be listed one after the other, as each one names the next. The
+ * details of the videos on a page don't: as soon as a page is listed, its videos.list
+ * requests, {@link #MAX_IDS_PER_REQUEST} ids each, are handed to a small pool and the
+ * next page is listed meanwhile. Loading n pages takes about n + 1 round trips instead of
+ * 2n. Pages are still delivered in playlist order.
+ */
+public class UploadsLoader {
+    private static final String TAG = "UploadsLoader";
+
+    /**
+     * Most ids a single videos.list request accepts, and most items per playlist page.
+     */
+    public static final int MAX_IDS_PER_REQUEST = 50;
+    /**
+     * videos.list requests in flight at once, across all loaders.
+     */
+    public static final int MAX_CONCURRENT_REQUESTS = 4;
+    private static final long IDLE_THREAD_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS,
+                IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * A page of the uploads playlist.
+     */
+    public static class UploadsPage {
+        public String playlistId;
+        /**
+         * null on the last page
+         */
+        public String nextPageToken;
+        /**
+         * The public videos on the page
+         */
+        public final List<VideoData> videos = new ArrayList<VideoData>();
+    }
+
+    /**
+     * Receives the loaded pages in playlist order, on the loading thread.
+     */
+    public interface Listener {
+        public void onPageLoaded(UploadsPage page);
+    }
+
+    private final Context mContext;
+    private final YouTube mYouTube;
+    private final String mAccountName;
+    private final ApiResponseCache mResponseCache;
+
+    public UploadsLoader(Context context, YouTube youtube, String accountName) {
+        mContext = context.getApplicationContext();
+        mYouTube = youtube;
+        mAccountName = accountName;
+        // Unchanged channels, pages and videos are answered with 304 Not Modified and served from
+        // the cache.
+        mResponseCache = ApiResponseCache.getInstance(mContext);
+    }
+
+    /**
+     * Loads pages of the uploads playlist until the given number of pages or the end of the
+     * playlist is reached. Blocks, so it must be called on a background thread.
+     *
+     * @param playlistId id of the uploads playlist, or null to look it up and start with the first
+     *                   page
+     * @param pageToken  page to start with, or null for the first page
+     */
+    public void load(String playlistId, String pageToken, int maxPages, Listener listener)
+            throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        boolean remembered = false;
+        if (playlistId == null) {
+            ChannelMetadata metadata = ChannelMetadataCache.getInstance(mContext)
+                    .get(mAccountName);
+            if (metadata != null) {
+                playlistId = metadata.uploadsPlaylistId;
+                remembered = true;
+            } else {
+                playlistId = fetchUploadsPlaylistId();
+            }
+        }
+
+        LinkedList<PendingPage> pending = new LinkedList<PendingPage>();
+        try {
+            int pages = 0;
+            do {
+                PlaylistItemListResponse pilr;
+                try {
+                    pilr = listPlaylistItems(playlistId, pageToken);
+                } catch (HttpResponseException e) {
+                    if (!remembered
+                            || e.getStatusCode() != HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+                        throw e;
+                    }
+                    // The remembered playlist is gone, look it up again.
+                    ChannelMetadataCache.getInstance(mContext).invalidate();
+                    playlistId = fetchUploadsPlaylistId();
+                    pilr = listPlaylistItems(playlistId, pageToken);
+                }
+                remembered = false;
+                pageToken = pilr.getNextPageToken();
+                pages++;
+
+                UploadsPage page = new UploadsPage();
+                page.playlistId = playlistId;
+                page.nextPageToken = pageToken;
+                pending.add(new PendingPage(page, submitDetails(getVideoIds(pilr))));
+
+                // Deliver the pages whose details already arrived, in order.
+                while (!pending.isEmpty() && pending.getFirst().isDone()) {
+                    listener.onPageLoaded(pending.removeFirst().get());
+                }
+            } while (pageToken != null && pages < maxPages);
+
+            while (!pending.isEmpty()) {
+                listener.onPageLoaded(pending.removeFirst().get());
+            }
+            Log.d(TAG, String.format("Loaded [%d] pages in [%d] ms. Responses: %s", pages,
+                    SystemClock.elapsedRealtime() - start, mResponseCache.getStats()));
+        } finally {
+            for (PendingPage page : pending) {
+                page.cancel();
+            }
+        }
+    }
+
+    /**
+     * Looks up the uploads playlist of the account's channel and remembers it with the other
+     * stable channel properties.
+     */
+    private String fetchUploadsPlaylistId() throws IOException {
+        /*
+         * Now that the user is authenticated, the app makes a channels list request to get the
+         * authenticated user's channel. Returned with that data is the playlist id for the uploaded
+         * videos. https://developers.google.com/youtube/v3/docs/channels/list
+         */
+        ChannelListResponse clr = mResponseCache.execute(mAccountName,
+                mYouTube.channels().list("id,snippet,contentDetails").setMine(true)
+                        .setFields(ApiFields.CHANNEL_METADATA));
+        ApiFields.check(ApiFields.CHANNEL_METADATA, clr.getItems(),
+                ApiFields.CHANNEL_METADATA_REQUIRED);
+
+        // Get the user's uploads playlist's id from channel list response
+        ChannelMetadata metadata = ChannelMetadata.fromChannel(clr.getItems().get(0));
+        ChannelMetadataCache.getInstance(mContext).put(mAccountName, metadata);
+        return metadata.uploadsPlaylistId;
+    }
+
+    private PlaylistItemListResponse listPlaylistItems(String playlistId, String pageToken)
+            throws IOException {
+        // Get a page of videos from user's upload playlist with a playlist items list request
+        PlaylistItemListResponse pilr = mResponseCache.execute(mAccountName,
+                mYouTube.playlistItems().list("contentDetails")
+                        .setPlaylistId(playlistId)
+                        .setPageToken(pageToken)
+                        .setMaxResults((long) MAX_IDS_PER_REQUEST)
+                        .setFields(ApiFields.UPLOADS_PAGE));
+        ApiFields.check(ApiFields.UPLOADS_PAGE, pilr.getItems(), ApiFields.UPLOADS_PAGE_REQUIRED);
+        return pilr;
+    }
+
+    private static List<String> getVideoIds(PlaylistItemListResponse pilr) {
+        List<String> videoIds = new ArrayList<String>();
+        if (pilr.getItems() != null) {
+            // Iterate over playlist item list response to get uploaded videos' ids.
+            for (PlaylistItem item : pilr.getItems()) {
+                videoIds.add(item.getContentDetails().getVideoId());
+            }
+        }
+        return videoIds;
+    }
+
+    /**
+     * Starts fetching the details of the given videos in batches on the pool.
+     */
+    private List<Future<List<VideoData>>> submitDetails(List<String> videoIds) {
+        List<Future<List<VideoData>>> batches = new ArrayList<Future<List<VideoData>>>();
+        for (int start = 0; start < videoIds.size(); start += MAX_IDS_PER_REQUEST) {
+            final List<String> batch = videoIds.subList(start,
+                    Math.min(videoIds.size(), start + MAX_IDS_PER_REQUEST));
+            batches.add(sExecutor.submit(new Callable<List<VideoData>>() {
+                @Override
+                public List<VideoData> call() throws IOException {
+                    return listPublicVideos(batch);
+                }
+            }));
+        }
+        return batches;
+    }
+
+    private List<VideoData> listPublicVideos(List<String> videoIds) throws IOException {
+        // Get details of uploaded videos with a videos list request.
+        VideoListResponse vlr = mResponseCache.execute(mAccountName,
+                mYouTube.videos().list("id,snippet,statistics,status")
+                        .setId(TextUtils.join(",", videoIds))
+                        .setFields(ApiFields.UPLOADS_VIDEOS));
+        ApiFields.check(ApiFields.UPLOADS_VIDEOS, vlr.getItems(),
+                ApiFields.UPLOADS_VIDEOS_REQUIRED);
+
+        // Add only the public videos to the local videos list.
+        List<VideoData> videos = new ArrayList<VideoData>();
+        if (vlr.getItems() != null) {
+            for (Video video : vlr.getItems()) {
+                if ("public".equals(video.getStatus().getPrivacyStatus())) {
+                    videos.add(VideoData.fromVideo(video));
+                }
+            }
+        }
+        return videos;
+    }
+
+    /**
+     * A listed page whose video details may still be in flight.
+     */
+    private static class PendingPage {
+        final UploadsPage page;
+        final List<Future<List<VideoData>>> batches;
+
+        PendingPage(UploadsPage page, List<Future<List<VideoData>>> batches) {
+            this.page = page;
+            this.batches = batches;
+        }
+
+        boolean isDone() {
+            for (Future<List<VideoData>> batch : batches) {
+                if (!batch.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Waits for the details and adds them to the page.
+         */
+        UploadsPage get() throws IOException {
+            for (Future<List<VideoData>> batch : batches) {
+                try {
+                    page.videos.addAll(batch.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted loading uploads");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return page;
+        }
+
+        void cancel() {
+            for (Future<List<VideoData>> batch : batches) {
+                batch.cancel(true);
+            }
+        }
+    }
+}
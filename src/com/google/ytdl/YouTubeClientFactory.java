@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.content.Context;
+
+import com.google.api.client.extensions.android.http.AndroidHttp;
+import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.services.youtube.YouTube;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process wide source of YouTube API clients. Activities and services share one HTTP
+ * transport, so the keep-alive connections to googleapis.com opened by one request are
+ * reused by the next one instead of paying a new TLS handshake, and one {@link YouTube}
+ * client per account.
+ * <p/>
+ * The transport is backed by HttpURLConnection, whose pool is configured through the
+ * http.keepAlive and http.maxConnections system properties.
+ */
+public class YouTubeClientFactory {
+    /**
+     * Idle connections kept in the pool per host.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 5;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 20 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static YouTubeClientFactory sInstance;
+
+    private final Context mContext;
+    private final HttpTransport mTransport;
+    private final JsonFactory mJsonFactory = new GsonFactory();
+    private final Map<String, YouTube> mClients = new HashMap<String, YouTube>();
+    private volatile int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private volatile int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    public static synchronized YouTubeClientFactory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new YouTubeClientFactory(context.getApplicationContext(),
+                    DEFAULT_MAX_CONNECTIONS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxConnections idle connections to keep per host; the pool reads this once, so it
+     *                       only applies before the first connection of the process is opened
+     */
+    private YouTubeClientFactory(Context context, int maxConnections) {
+        mContext = context;
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+        mTransport = AndroidHttp.newCompatibleTransport();
+    }
+
+    public HttpTransport getTransport() {
+        return mTransport;
+    }
+
+    public JsonFactory getJsonFactory() {
+        return mJsonFactory;
+    }
+
+    /**
+     * Sets the timeouts of requests built from now on.
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @return the client authorized as the given account, created on first use
+     */
+    public synchronized YouTube getYouTube(String accountName) {
+        YouTube youtube = mClients.get(accountName);
+        if (youtube == null) {
+            GoogleAccountCredential credential =
+                    GoogleAccountCredential.usingOAuth2(mContext, Arrays.asList(Auth.SCOPES));
+            credential.setSelectedAccountName(accountName);
+            // set exponential backoff policy
+            credential.setBackOff(new ExponentialBackOff());
+            youtube = new YouTube.Builder(mTransport, mJsonFactory,
+                    new PooledRequestInitializer(credential))
+                    .setApplicationName(Constants.APP_NAME).build();
+            mClients.put(accountName, youtube);
+        }
+        return youtube;
+    }
+
+    /**
+     * Authorizes requests and applies the timeouts.
+     */
+    private class PooledRequestInitializer implements HttpRequestInitializer {
+        private final HttpRequestInitializer mCredential;
+
+        PooledRequestInitializer(HttpRequestInitializer credential) {
+            mCredential = credential;
+        }
+
+        @Override
+        public void initialize(HttpRequest request) throws IOException {
+            mCredential.initialize(request);
+            request.setConnectTimeout(mConnectTimeoutMillis);
+            request.setReadTimeout(mReadTimeoutMillis);
+        }
+    }
+}
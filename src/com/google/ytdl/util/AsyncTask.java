@@ -50,7 +50,8 @@ import android.os.Process;
  * -pre-HC a single thread executor is used for serial operation
  * (Executors.newSingleThreadExecutor) and is the default
  * -the default THREAD_POOL_EXECUTOR was changed to use DiscardOldestPolicy
- * -a new fixed thread pool called DUAL_THREAD_EXECUTOR was added
+ * -two fixed thread pools were added for the image loader, DECODE_EXECUTOR for disk and CPU
+ * bound work and NETWORK_EXECUTOR for downloads
  * *************************************
  * <p/>
  * <p>AsyncTask enables proper and easy use of the UI thread. This class allows to
@@ -201,6 +202,8 @@ public abstract class AsyncTask<Params, Progress, Result> {
     private static final int CORE_POOL_SIZE = 5;
     private static final int MAXIMUM_POOL_SIZE = 128;
     private static final int KEEP_ALIVE = 1;
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int NETWORK_POOL_SIZE = 4;
 
     private static final ThreadFactory sThreadFactory = new ThreadFactory() {
         private final AtomicInteger mCount = new AtomicInteger(1);
@@ -228,8 +231,19 @@ public abstract class AsyncTask<Params, Progress, Result> {
     public static final Executor SERIAL_EXECUTOR = Utils.hasHoneycomb() ? new SerialExecutor() :
             Executors.newSingleThreadExecutor(sThreadFactory);
 
-    public static final Executor DUAL_THREAD_EXECUTOR =
-            Executors.newFixedThreadPool(2, sThreadFactory);
+    /**
+     * An {@link Executor} for work bound by the CPU or the local disk, like reading and decoding
+     * cached images, with a thread per CPU core.
+     */
+    public static final Executor DECODE_EXECUTOR =
+            Executors.newFixedThreadPool(Math.max(2, CPU_COUNT), sThreadFactory);
+
+    /**
+     * An {@link Executor} for downloads. Separate from {@link #DECODE_EXECUTOR}, so work that
+     * only needs the disk never waits behind slow downloads.
+     */
+    public static final Executor NETWORK_EXECUTOR =
+            Executors.newFixedThreadPool(NETWORK_POOL_SIZE, sThreadFactory);
 
     private static final int MESSAGE_POST_RESULT = 0x1;
     private static final int MESSAGE_POST_PROGRESS = 0x2;
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl.util;
+
+import android.os.ParcelFileDescriptor;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * HTTP content backed by the {@link FileChannel} of a {@link ParcelFileDescriptor}.
+ * <p/>
+ * All reads are positional, so the channel is never seeked and any range of the file can be sent
+ * again (for example when resuming an upload) without re-reading what comes before it. Data is
+ * moved through a single transfer buffer owned by this object instead of a new buffer per read.
+ * The buffer wraps a heap array because the socket stream needs a byte array anyway and Android's
+ * FileChannel reads into a heap buffer without an intermediate copy.
+ */
+public class FileChannelContent extends AbstractInputStreamContent {
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final ParcelFileDescriptor mFileDescriptor;
+    private final FileInputStream mFileInputStream;
+    private final FileChannel mChannel;
+    private final long mLength;
+    private final long mOffset;
+    private final FileChannelContent mParent;
+    private ByteBuffer mTransferBuffer;
+
+    /**
+     * @param type           MIME type of the content
+     * @param fileDescriptor descriptor to read from; it is closed by {@link #close()}
+     */
+    public FileChannelContent(String type, ParcelFileDescriptor fileDescriptor) {
+        super(type);
+        mFileDescriptor = fileDescriptor;
+        mFileInputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+        mChannel = mFileInputStream.getChannel();
+        mLength = fileDescriptor.getStatSize();
+        mOffset = 0;
+        mParent = null;
+    }
+
+    private FileChannelContent(FileChannelContent parent, long offset, long length) {
+        super(parent.getType());
+        mFileDescriptor = parent.mFileDescriptor;
+        mFileInputStream = parent.mFileInputStream;
+        mChannel = parent.mChannel;
+        mOffset = parent.mOffset + offset;
+        mLength = length;
+        mParent = parent;
+    }
+
+    /**
+     * @return content covering the given range of this content, sharing its channel and
+     *         transfer buffer
+     */
+    public FileChannelContent slice(long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > mLength) {
+            throw new IndexOutOfBoundsException(String.format("[%d, %d) is outside of [0, %d)",
+                    offset, offset + length, mLength));
+        }
+        return new FileChannelContent(this, offset, length);
+    }
+
+    @Override
+    public long getLength() {
+        return mLength;
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return true;
+    }
+
+    /**
+     * Reads bytes at the given position of this content without moving the channel.
+     *
+     * @return the number of bytes read, or -1 at the end of this content
+     */
+    public int read(long position, ByteBuffer dst) throws IOException {
+        if (position >= mLength) {
+            return -1;
+        }
+        long remaining = mLength - position;
+        if (dst.remaining() > remaining) {
+            int limit = dst.limit();
+            dst.limit(dst.position() + (int) remaining);
+            try {
+                return mChannel.read(dst, mOffset + position);
+            } finally {
+                dst.limit(limit);
+            }
+        }
+        return mChannel.read(dst, mOffset + position);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer buffer = getTransferBuffer();
+        synchronized (buffer) {
+            long position = 0;
+            while (position < mLength) {
+                buffer.clear();
+                int read = read(position, buffer);
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer.array(), buffer.arrayOffset(), read);
+                position += read;
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new InputStream() {
+            private long mPosition;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = FileChannelContent.this.read(mPosition, ByteBuffer.wrap(b, off, len));
+                if (read > 0) {
+                    mPosition += read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, mLength - mPosition));
+                mPosition += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, mLength - mPosition);
+            }
+        };
+    }
+
+    private ByteBuffer getTransferBuffer() {
+        if (mParent != null) {
+            return mParent.getTransferBuffer();
+        }
+        synchronized (this) {
+            if (mTransferBuffer == null) {
+                mTransferBuffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            }
+            return mTransferBuffer;
+        }
+    }
+
+    /**
+     * Closes the channel and the underlying file descriptor.
+     */
+    public void close() throws IOException {
+        try {
+            mFileInputStream.close();
+        } finally {
+            mFileDescriptor.close();
+        }
+    }
+
+    @Override
+    public FileChannelContent setType(String type) {
+        return (FileChannelContent) super.setType(type);
+    }
+
+    @Override
+    public FileChannelContent setCloseInputStream(boolean closeInputStream) {
+        return (FileChannelContent) super.setCloseInputStream(closeInputStream);
+    }
+}
@@ -26,27 +26,41 @@ import android.util.Log;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 
 /**
  * A simple subclass of {@link ImageResizer} that fetches and resizes images fetched from a URL.
+ * <p/>
+ * Downloaded images are kept in an HTTP disk cache shared by every fetcher of the process, so an
+ * image is downloaded once, whichever fetcher asked for it first.
  */
 public class ImageFetcher extends ImageResizer {
     private static final String TAG = "ImageFetcher";
     private static final int HTTP_CACHE_SIZE = 10 * 1024 * 1024; // 10MB
     private static final String HTTP_CACHE_DIR = "http";
     private static final int IO_BUFFER_SIZE = 8 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 15 * 1000;
 
-    private DiskLruCache mHttpDiskCache;
+    // The HTTP cache is opened once per process, DiskLruCache doesn't support two instances
+    // working on the same directory.
+    private static DiskLruCache sHttpDiskCache;
+    private static final Object sHttpDiskCacheLock = new Object();
+    /**
+     * Downloads in flight, by cache key, so a second request for the same image waits for the
+     * first one instead of failing to edit the cache entry
+     */
+    private static final Map<String, CountDownLatch> sDownloads =
+            new HashMap<String, CountDownLatch>();
     private File mHttpCacheDir;
-    private boolean mHttpDiskCacheStarting = true;
-    private final Object mHttpDiskCacheLock = new Object();
     private static final int DISK_CACHE_INDEX = 0;
 
     /**
@@ -83,41 +97,45 @@ public class ImageFetcher extends ImageResizer {
         initHttpDiskCache();
     }
 
+    /**
+     * Opens the shared HTTP cache unless it is already open. Includes disk access, so this must
+     * not be executed on the main/UI thread.
+     */
     private void initHttpDiskCache() {
-        if (!mHttpCacheDir.exists()) {
-            mHttpCacheDir.mkdirs();
-        }
-        synchronized (mHttpDiskCacheLock) {
+        synchronized (sHttpDiskCacheLock) {
+            if (sHttpDiskCache != null && !sHttpDiskCache.isClosed()) {
+                return;
+            }
+            if (!mHttpCacheDir.exists()) {
+                mHttpCacheDir.mkdirs();
+            }
             if (ImageCache.getUsableSpace(mHttpCacheDir) > HTTP_CACHE_SIZE) {
                 try {
-                    mHttpDiskCache = DiskLruCache.open(mHttpCacheDir, 1, 1, HTTP_CACHE_SIZE);
+                    sHttpDiskCache = DiskLruCache.open(mHttpCacheDir, 1, 1, HTTP_CACHE_SIZE);
                     if (BuildConfig.DEBUG) {
                         Log.d(TAG, "HTTP cache initialized");
                     }
                 } catch (IOException e) {
-                    mHttpDiskCache = null;
+                    sHttpDiskCache = null;
                 }
             }
-            mHttpDiskCacheStarting = false;
-            mHttpDiskCacheLock.notifyAll();
         }
     }
 
     @Override
     protected void clearCacheInternal() {
         super.clearCacheInternal();
-        synchronized (mHttpDiskCacheLock) {
-            if (mHttpDiskCache != null && !mHttpDiskCache.isClosed()) {
+        synchronized (sHttpDiskCacheLock) {
+            if (sHttpDiskCache != null && !sHttpDiskCache.isClosed()) {
                 try {
-                    mHttpDiskCache.delete();
+                    sHttpDiskCache.delete();
                     if (BuildConfig.DEBUG) {
                         Log.d(TAG, "HTTP cache cleared");
                     }
                 } catch (IOException e) {
                     Log.e(TAG, "clearCacheInternal - " + e);
                 }
-                mHttpDiskCache = null;
-                mHttpDiskCacheStarting = true;
+                sHttpDiskCache = null;
                 initHttpDiskCache();
             }
         }
@@ -126,10 +144,14 @@ public class ImageFetcher extends ImageResizer {
     @Override
     protected void flushCacheInternal() {
         super.flushCacheInternal();
-        synchronized (mHttpDiskCacheLock) {
-            if (mHttpDiskCache != null) {
+        flushHttpDiskCache();
+    }
+
+    private static void flushHttpDiskCache() {
+        synchronized (sHttpDiskCacheLock) {
+            if (sHttpDiskCache != null && !sHttpDiskCache.isClosed()) {
                 try {
-                    mHttpDiskCache.flush();
+                    sHttpDiskCache.flush();
                     if (BuildConfig.DEBUG) {
                         Log.d(TAG, "HTTP cache flushed");
                     }
@@ -143,21 +165,8 @@ public class ImageFetcher extends ImageResizer {
     @Override
     protected void closeCacheInternal() {
         super.closeCacheInternal();
-        synchronized (mHttpDiskCacheLock) {
-            if (mHttpDiskCache != null) {
-                try {
-                    if (!mHttpDiskCache.isClosed()) {
-                        mHttpDiskCache.close();
-                        mHttpDiskCache = null;
-                        if (BuildConfig.DEBUG) {
-                            Log.d(TAG, "HTTP cache closed");
-                        }
-                    }
-                } catch (IOException e) {
-                    Log.e(TAG, "closeCacheInternal - " + e);
-                }
-            }
-        }
+        // Other fetchers may still use the shared HTTP cache, so it is only flushed.
+        flushHttpDiskCache();
     }
 
     /**
@@ -175,6 +184,17 @@ public class ImageFetcher extends ImageResizer {
         }
     }
 
+    /**
+     * Loads an image synchronously, from the HTTP cache or the network, sampled down to the size
+     * of this fetcher. Must not be called on the main/UI thread.
+     *
+     * @param url a regular http URL
+     * @return the image, or null if it couldn't be loaded
+     */
+    public Bitmap loadBitmap(String url) {
+        return processBitmap(url);
+    }
+
     /**
      * The main process method, which will be called by the ImageWorker in the AsyncTask background
      * thread.
@@ -187,74 +207,160 @@ public class ImageFetcher extends ImageResizer {
             Log.d(TAG, "processBitmap - " + data);
         }
 
+        final DiskLruCache httpDiskCache = getHttpDiskCache();
+        if (httpDiskCache == null) {
+            return null;
+        }
         final String key = ImageCache.hashKeyForDisk(data);
-        FileDescriptor fileDescriptor = null;
         FileInputStream fileInputStream = null;
-        DiskLruCache.Snapshot snapshot;
-        synchronized (mHttpDiskCacheLock) {
-            // Wait for disk cache to initialize
-            while (mHttpDiskCacheStarting) {
-                try {
-                    mHttpDiskCacheLock.wait();
-                } catch (InterruptedException e) {
+        try {
+            DiskLruCache.Snapshot snapshot = httpDiskCache.get(key);
+            if (snapshot == null) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "processBitmap, not found in http cache, downloading...");
                 }
+                downloadToHttpDiskCache(httpDiskCache, key, data);
+                snapshot = httpDiskCache.get(key);
             }
-
-            if (mHttpDiskCache != null) {
+            if (snapshot != null) {
+                fileInputStream = (FileInputStream) snapshot.getInputStream(DISK_CACHE_INDEX);
+                return decodeSampledBitmapFromDescriptor(fileInputStream.getFD(), mImageWidth,
+                        mImageHeight, getImageCache());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "processBitmap - " + e);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "processBitmap - " + e);
+        } finally {
+            if (fileInputStream != null) {
                 try {
-                    snapshot = mHttpDiskCache.get(key);
-                    if (snapshot == null) {
-                        if (BuildConfig.DEBUG) {
-                            Log.d(TAG, "processBitmap, not found in http cache, downloading...");
-                        }
-                        DiskLruCache.Editor editor = mHttpDiskCache.edit(key);
-                        if (editor != null) {
-                            if (downloadUrlToStream(data,
-                                    editor.newOutputStream(DISK_CACHE_INDEX))) {
-                                editor.commit();
-                            } else {
-                                editor.abort();
-                            }
-                        }
-                        snapshot = mHttpDiskCache.get(key);
-                    }
-                    if (snapshot != null) {
-                        fileInputStream =
-                                (FileInputStream) snapshot.getInputStream(DISK_CACHE_INDEX);
-                        fileDescriptor = fileInputStream.getFD();
-                    }
+                    fileInputStream.close();
                 } catch (IOException e) {
-                    Log.e(TAG, "processBitmap - " + e);
-                } catch (IllegalStateException e) {
-                    Log.e(TAG, "processBitmap - " + e);
-                } finally {
-                    if (fileDescriptor == null && fileInputStream != null) {
-                        try {
-                            fileInputStream.close();
-                        } catch (IOException e) {
-                        }
-                    }
                 }
             }
         }
+        return null;
+    }
 
-        Bitmap bitmap = null;
-        if (fileDescriptor != null) {
-            bitmap = decodeSampledBitmapFromDescriptor(fileDescriptor, mImageWidth,
-                    mImageHeight, getImageCache());
+    @Override
+    protected Bitmap processBitmap(Object data) {
+        return processBitmap(String.valueOf(data));
+    }
+
+    /**
+     * Images not in the HTTP cache yet have to be downloaded, unless there is no HTTP cache to
+     * download them to.
+     */
+    @Override
+    protected boolean needsDownload(Object data) {
+        final DiskLruCache httpDiskCache = getHttpDiskCache();
+        if (httpDiskCache == null) {
+            return false;
         }
-        if (fileInputStream != null) {
-            try {
-                fileInputStream.close();
-            } catch (IOException e) {
+        try {
+            DiskLruCache.Snapshot snapshot =
+                    httpDiskCache.get(ImageCache.hashKeyForDisk(String.valueOf(data)));
+            if (snapshot != null) {
+                snapshot.close();
+                return false;
             }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "needsDownload - " + e);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "needsDownload - " + e);
         }
-        return bitmap;
+        return false;
     }
 
     @Override
-    protected Bitmap processBitmap(Object data) {
-        return processBitmap(String.valueOf(data));
+    protected boolean download(Object data) {
+        final DiskLruCache httpDiskCache = getHttpDiskCache();
+        if (httpDiskCache == null) {
+            return false;
+        }
+        final String url = String.valueOf(data);
+        try {
+            return downloadToHttpDiskCache(httpDiskCache, ImageCache.hashKeyForDisk(url), url);
+        } catch (IOException e) {
+            Log.e(TAG, "download - " + e);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "download - " + e);
+        }
+        return false;
+    }
+
+    /**
+     * @return the shared HTTP cache, opened if no fetcher did so far, or null if there isn't
+     *         enough space for it
+     */
+    private DiskLruCache getHttpDiskCache() {
+        synchronized (sHttpDiskCacheLock) {
+            initHttpDiskCache();
+            return sHttpDiskCache;
+        }
+    }
+
+    /**
+     * Downloads the image into the HTTP cache. Doesn't hold the cache lock while downloading, so
+     * images already in the cache can be read meanwhile. If another thread is already downloading
+     * the same image, waits for that download instead.
+     *
+     * @return whether the image is in the HTTP cache now
+     */
+    private boolean downloadToHttpDiskCache(DiskLruCache httpDiskCache, String key, String url)
+            throws IOException {
+        final CountDownLatch download;
+        final boolean inFlight;
+        synchronized (sDownloads) {
+            CountDownLatch pending = sDownloads.get(key);
+            inFlight = pending != null;
+            download = inFlight ? pending : new CountDownLatch(1);
+            if (!inFlight) {
+                sDownloads.put(key, download);
+            }
+        }
+        if (inFlight) {
+            try {
+                download.await();
+            } catch (InterruptedException e) {
+                // Cancelled meanwhile
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            final DiskLruCache.Snapshot snapshot = httpDiskCache.get(key);
+            if (snapshot == null) {
+                return false;
+            }
+            snapshot.close();
+            return true;
+        }
+
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = httpDiskCache.edit(key);
+            if (editor == null) {
+                return false;
+            }
+            if (downloadUrlToStream(url, editor.newOutputStream(DISK_CACHE_INDEX))) {
+                editor.commit();
+                editor = null;
+                return true;
+            }
+            return false;
+        } finally {
+            if (editor != null) {
+                try {
+                    editor.abort();
+                } catch (IOException e) {
+                } catch (IllegalStateException e) {
+                }
+            }
+            synchronized (sDownloads) {
+                sDownloads.remove(key);
+            }
+            download.countDown();
+        }
     }
 
     /**
@@ -272,12 +378,15 @@ public class ImageFetcher extends ImageResizer {
         try {
             final URL url = new URL(urlString);
             urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
             in = new BufferedInputStream(urlConnection.getInputStream(), IO_BUFFER_SIZE);
             out = new BufferedOutputStream(outputStream, IO_BUFFER_SIZE);
 
-            int b;
-            while ((b = in.read()) != -1) {
-                out.write(b);
+            byte[] buffer = new byte[IO_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
             }
             return true;
         } catch (final IOException e) {
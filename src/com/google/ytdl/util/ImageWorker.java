@@ -35,6 +35,11 @@ import java.lang.ref.WeakReference;
  * This class wraps up completing some arbitrary long running work when loading a bitmap to an
  * ImageView. It handles things like using a memory and disk cache, running the work in a background
  * thread and setting a placeholder image.
+ * <p/>
+ * Images are loaded in stages. The memory cache is checked on the calling thread. Disk lookups and
+ * decoding run on {@link AsyncTask#DECODE_EXECUTOR}. Images that have to be downloaded first, see
+ * {@link #needsDownload(Object)}, are handed to {@link AsyncTask#NETWORK_EXECUTOR} and come back
+ * to be decoded once they are on disk, so images already on disk never wait behind downloads.
  */
 public abstract class ImageWorker {
     private static final String TAG = "ImageWorker";
@@ -85,7 +90,7 @@ public abstract class ImageWorker {
             // Bitmap found in memory cache
             imageView.setImageDrawable(value);
         } else if (cancelPotentialWork(data, imageView)) {
-            final BitmapWorkerTask task = new BitmapWorkerTask(imageView);
+            final BitmapWorkerTask task = new BitmapWorkerTask(imageView, data, false);
             final AsyncDrawable asyncDrawable =
                     new AsyncDrawable(mResources, mLoadingBitmap, task);
             imageView.setImageDrawable(asyncDrawable);
@@ -93,10 +98,21 @@ public abstract class ImageWorker {
             // NOTE: This uses a custom version of AsyncTask that has been pulled from the
             // framework and slightly modified. Refer to the docs at the top of the class
             // for more info on what was changed.
-            task.executeOnExecutor(AsyncTask.DUAL_THREAD_EXECUTOR, data);
+            task.executeOnExecutor(AsyncTask.DECODE_EXECUTOR);
         }
     }
 
+    /**
+     * Starts the next stage of loading an image into the image view, replacing the finished
+     * stage as the view's pending work.
+     */
+    private void startStage(ImageView imageView, AsyncDrawable asyncDrawable, Object data,
+                            boolean download) {
+        final BitmapWorkerTask task = new BitmapWorkerTask(imageView, data, download);
+        asyncDrawable.setBitmapWorkerTask(task);
+        task.executeOnExecutor(download ? AsyncTask.NETWORK_EXECUTOR : AsyncTask.DECODE_EXECUTOR);
+    }
+
     /**
      * Set placeholder bitmap that shows when the the background thread is running.
      *
@@ -164,6 +180,28 @@ public abstract class ImageWorker {
      */
     protected abstract Bitmap processBitmap(Object data);
 
+    /**
+     * Subclasses that load images from the network should override this to tell whether the
+     * image has to be downloaded before {@link #processBitmap(Object)} can decode it. Executed on
+     * the decode thread, so it may access the disk but must not block on the network.
+     *
+     * @return true to have {@link #download(Object)} run on the network thread pool first
+     */
+    protected boolean needsDownload(Object data) {
+        return false;
+    }
+
+    /**
+     * Subclasses that override {@link #needsDownload(Object)} should override this to download
+     * the image to where {@link #processBitmap(Object)} reads it from. Executed on the network
+     * thread pool.
+     *
+     * @return whether the image was downloaded
+     */
+    protected boolean download(Object data) {
+        return false;
+    }
+
     /**
      * @return The {@link ImageCache} object currently being used by this ImageWorker.
      */
@@ -228,26 +266,34 @@ public abstract class ImageWorker {
     }
 
     /**
-     * The actual AsyncTask that will asynchronously process the image.
+     * The actual AsyncTask that will asynchronously process the image. Runs one stage: either
+     * the disk lookup and decoding, or the download.
      */
-    private class BitmapWorkerTask extends AsyncTask<Object, Void, BitmapDrawable> {
-        private Object data;
+    private class BitmapWorkerTask extends AsyncTask<Void, Void, BitmapDrawable> {
+        private final Object data;
+        private final boolean download;
         private final WeakReference<ImageView> imageViewReference;
+        /**
+         * Set by the decode stage if the image has to be downloaded first, and by the download
+         * stage if it was downloaded and can be decoded
+         */
+        private boolean nextStage;
 
-        public BitmapWorkerTask(ImageView imageView) {
+        public BitmapWorkerTask(ImageView imageView, Object data, boolean download) {
             imageViewReference = new WeakReference<ImageView>(imageView);
+            this.data = data;
+            this.download = download;
         }
 
         /**
          * Background processing.
          */
         @Override
-        protected BitmapDrawable doInBackground(Object... params) {
+        protected BitmapDrawable doInBackground(Void... params) {
             if (BuildConfig.DEBUG) {
-                Log.d(TAG, "doInBackground - starting work");
+                Log.d(TAG, "doInBackground - starting " + (download ? "download" : "decode"));
             }
 
-            data = params[0];
             final String dataString = String.valueOf(data);
             Bitmap bitmap = null;
             BitmapDrawable drawable = null;
@@ -262,6 +308,14 @@ public abstract class ImageWorker {
                 }
             }
 
+            if (download) {
+                // Only download here, decoding goes back to the decode threads
+                if (!isCancelled() && getAttachedImageView() != null && !mExitTasksEarly) {
+                    nextStage = download(data);
+                }
+                return null;
+            }
+
             // If the image cache is available and this task has not been cancelled by another
             // thread and the ImageView that was originally bound to this task is still bound back
             // to this task and our "exit early" flag is not set then try and fetch the bitmap from
@@ -271,13 +325,21 @@ public abstract class ImageWorker {
                 bitmap = mImageCache.getBitmapFromDiskCache(dataString);
             }
 
+            // If the bitmap was not found in the cache and has to be downloaded, leave this thread
+            // to images already on disk and continue on the network threads
+            if (bitmap == null && !isCancelled() && getAttachedImageView() != null
+                    && !mExitTasksEarly && needsDownload(data)) {
+                nextStage = true;
+                return null;
+            }
+
             // If the bitmap was not found in the cache and this task has not been cancelled by
             // another thread and the ImageView that was originally bound to this task is still
             // bound back to this task and our "exit early" flag is not set, then call the main
             // process method (as implemented by a subclass)
             if (bitmap == null && !isCancelled() && getAttachedImageView() != null
                     && !mExitTasksEarly) {
-                bitmap = processBitmap(params[0]);
+                bitmap = processBitmap(data);
             }
 
             // If the bitmap was processed and the image cache is available, then add the processed
@@ -307,17 +369,24 @@ public abstract class ImageWorker {
         }
 
         /**
-         * Once the image is processed, associates it to the imageView
+         * Once the image is processed, associates it to the imageView, or starts the next stage
          */
         @Override
         protected void onPostExecute(BitmapDrawable value) {
             // if cancel was called on this task or the "exit early" flag is set then we're done
             if (isCancelled() || mExitTasksEarly) {
-                value = null;
+                return;
             }
 
             final ImageView imageView = getAttachedImageView();
-            if (value != null && imageView != null) {
+            if (imageView == null) {
+                return;
+            }
+            if (nextStage) {
+                // A decode that missed the disk continues with the download, a download with
+                // the decode
+                startStage(imageView, (AsyncDrawable) imageView.getDrawable(), data, !download);
+            } else if (value != null) {
                 if (BuildConfig.DEBUG) {
                     Log.d(TAG, "onPostExecute - setting bitmap");
                 }
@@ -353,20 +422,25 @@ public abstract class ImageWorker {
      * A custom Drawable that will be attached to the imageView while the work is in progress.
      * Contains a reference to the actual worker task, so that it can be stopped if a new binding is
      * required, and makes sure that only the last started worker process can bind its result,
-     * independently of the finish order.
+     * independently of the finish order. The reference moves on to each stage of the work.
      */
     private static class AsyncDrawable extends BitmapDrawable {
-        private final WeakReference<BitmapWorkerTask> bitmapWorkerTaskReference;
+        // Read by the worker threads
+        private volatile WeakReference<BitmapWorkerTask> bitmapWorkerTaskReference;
 
         public AsyncDrawable(Resources res, Bitmap bitmap, BitmapWorkerTask bitmapWorkerTask) {
             super(res, bitmap);
-            bitmapWorkerTaskReference =
-                    new WeakReference<BitmapWorkerTask>(bitmapWorkerTask);
+            setBitmapWorkerTask(bitmapWorkerTask);
         }
 
         public BitmapWorkerTask getBitmapWorkerTask() {
             return bitmapWorkerTaskReference.get();
         }
+
+        public void setBitmapWorkerTask(BitmapWorkerTask bitmapWorkerTask) {
+            bitmapWorkerTaskReference =
+                    new WeakReference<BitmapWorkerTask>(bitmapWorkerTask);
+        }
     }
 
     /**
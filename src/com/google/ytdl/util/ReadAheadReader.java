@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl.util;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a {@link FileChannelContent} ahead of the consumer on a background thread, so reading
+ * the file overlaps with sending what was read before.
+ * <p/>
+ * The reader owns a fixed ring of reusable segments. The background thread fills free segments
+ * with consecutive bytes of the file and the consumer (a chunk being written to the socket by
+ * {@link #slice(long, long)}) drains them and hands them back. When the ring is full the network
+ * is the bottleneck, when it is empty the disk is; both waits are counted, see
+ * {@link #getProducerWaitMillis()} and {@link #getConsumerWaitMillis()}.
+ * <p/>
+ * Reading continues past the end of the current chunk, so the start of the next chunk is already
+ * in memory while the server acknowledges the current one. If the consumer asks for a position
+ * other than the one that follows what it consumed last (a retry, or a server that committed
+ * fewer bytes than it was sent), the read-ahead data is dropped and reading restarts there.
+ */
+public class ReadAheadReader {
+    private static final String TAG = "ReadAheadReader";
+    public static final int DEFAULT_SEGMENT_COUNT = 8;
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    private static class Segment {
+        final ByteBuffer buffer;
+        long position;
+        int generation;
+
+        Segment(int size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+    }
+
+    /**
+     * Handed to the reading thread by {@link #close()} to wake it up. Interrupting the thread
+     * instead would close the file channel, which the source shares with its other readers.
+     */
+    private static final Segment CLOSED = new Segment(0);
+
+    private final FileChannelContent mSource;
+    private final int mSegmentCount;
+    private final BlockingQueue<Segment> mFree;
+    private final BlockingQueue<Segment> mFilled;
+    private final Object mLock = new Object();
+    private final Thread mThread;
+
+    // Guarded by mLock
+    private int mGeneration;
+    private long mReadPosition;
+
+    // Only touched by the consumer
+    private Segment mCurrent;
+    private long mConsumerPosition;
+
+    private volatile boolean mClosed;
+    private volatile IOException mReadError;
+    private volatile long mProducerWaitNanos;
+    private volatile long mConsumerWaitNanos;
+    private long mOccupancySum;
+    private long mOccupancySamples;
+
+    /**
+     * @param source   content to read
+     * @param position where the consumer is expected to start reading
+     */
+    public ReadAheadReader(FileChannelContent source, long position) {
+        this(source, position, DEFAULT_SEGMENT_COUNT, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public ReadAheadReader(FileChannelContent source, long position, int segmentCount,
+                           int segmentSize) {
+        mSource = source;
+        mSegmentCount = segmentCount;
+        mReadPosition = position;
+        mConsumerPosition = position;
+        // One spare slot, so close() can always hand over CLOSED
+        mFree = new ArrayBlockingQueue<Segment>(segmentCount + 1);
+        mFilled = new ArrayBlockingQueue<Segment>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            mFree.add(new Segment(segmentSize));
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                readLoop();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * @return content which writes the given range of the source from the read-ahead ring
+     */
+    public AbstractInputStreamContent slice(final long offset, final long length) {
+        return new AbstractInputStreamContent(mSource.getType()) {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public boolean retrySupported() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                transferTo(offset, length, out);
+                out.flush();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return mSource.slice(offset, length).getInputStream();
+            }
+        };
+    }
+
+    /**
+     * @return how many of the segments hold data that wasn't consumed yet, averaged over every
+     *         time the consumer took a segment
+     */
+    public float getAverageOccupancy() {
+        synchronized (mLock) {
+            return mOccupancySamples == 0 ? 0 : (float) mOccupancySum / mOccupancySamples;
+        }
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * @return time the reading thread spent waiting for a free segment, i.e. for the network
+     */
+    public long getProducerWaitMillis() {
+        return mProducerWaitNanos / 1000000;
+    }
+
+    /**
+     * @return time the consumer spent waiting for data, i.e. for the disk
+     */
+    public long getConsumerWaitMillis() {
+        return mConsumerWaitNanos / 1000000;
+    }
+
+    public void close() {
+        mClosed = true;
+        mFree.offer(CLOSED);
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("occupancy=%.1f/%d, producerWaitMillis=%d, consumerWaitMillis=%d",
+                getAverageOccupancy(), mSegmentCount, getProducerWaitMillis(),
+                getConsumerWaitMillis());
+    }
+
+    private void transferTo(long offset, long length, OutputStream out) throws IOException {
+        if (offset != mConsumerPosition) {
+            seek(offset);
+        }
+        long end = offset + length;
+        while (mConsumerPosition < end) {
+            if (mCurrent == null) {
+                mCurrent = take();
+            }
+            ByteBuffer buffer = mCurrent.buffer;
+            int start = (int) (mConsumerPosition - mCurrent.position);
+            int count = (int) Math.min(buffer.limit() - start, end - mConsumerPosition);
+            out.write(buffer.array(), buffer.arrayOffset() + start, count);
+            mConsumerPosition += count;
+            if (start + count == buffer.limit()) {
+                recycle(mCurrent);
+                mCurrent = null;
+            }
+        }
+    }
+
+    /**
+     * Drops the read-ahead data and restarts reading at the given position.
+     */
+    private void seek(long position) {
+        if (mCurrent != null) {
+            recycle(mCurrent);
+            mCurrent = null;
+        }
+        synchronized (mLock) {
+            mGeneration++;
+            mReadPosition = position;
+            mReadError = null;
+            Segment stale;
+            while ((stale = mFilled.poll()) != null) {
+                recycle(stale);
+            }
+            mLock.notifyAll();
+        }
+        mConsumerPosition = position;
+    }
+
+    private Segment take() throws IOException {
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                Segment segment = mFilled.take();
+                synchronized (mLock) {
+                    mOccupancySum += mFilled.size() + 1;
+                    mOccupancySamples++;
+                    if (segment.generation == mGeneration) {
+                        if (segment.buffer.limit() == 0) {
+                            recycle(segment);
+                            if (mReadError != null) {
+                                throw mReadError;
+                            }
+                            throw new IOException(String.format("Unexpected end of file at [%d]",
+                                    segment.position));
+                        }
+                        return segment;
+                    }
+                }
+                recycle(segment);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            mConsumerWaitNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void recycle(Segment segment) {
+        mFree.offer(segment);
+    }
+
+    private void readLoop() {
+        while (!mClosed) {
+            Segment segment;
+            long start = System.nanoTime();
+            try {
+                segment = mFree.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (segment == CLOSED) {
+                return;
+            }
+            mProducerWaitNanos += System.nanoTime() - start;
+
+            long position;
+            synchronized (mLock) {
+                position = mReadPosition;
+                segment.generation = mGeneration;
+            }
+            segment.position = position;
+            segment.buffer.clear();
+            int read;
+            try {
+                read = Math.max(0, mSource.read(position, segment.buffer));
+            } catch (IOException e) {
+                Log.e(TAG, "Reading ahead failed at " + position, e);
+                mReadError = e;
+                read = 0;
+            }
+            segment.buffer.flip();
+            synchronized (mLock) {
+                if (segment.generation == mGeneration) {
+                    mReadPosition = position + read;
+                }
+            }
+            mFilled.offer(segment);
+            if (read == 0) {
+                // End of file or error: wait until the consumer seeks somewhere else.
+                waitForSeek(segment.generation);
+            }
+        }
+    }
+
+    private void waitForSeek(int generation) {
+        synchronized (mLock) {
+            while (!mClosed && generation == mGeneration) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl.util;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only list of videos that stays sorted while pages of videos are added, replaced and
+ * removed. A page of k videos is sorted on its own and merged into the n listed ones in a
+ * single pass, O(n + k log k), instead of sorting the whole list again or shifting the
+ * list once per video. Videos are unique by YouTube id.
+ * <p/>
+ * Titles are compared with a {@link Collator} of the default locale. The collation key of
+ * each title is computed once, when the video is added. Changing the {@link Order} sorts
+ * the list once, with no need to load it again.
+ */
+public class SortedVideoList extends AbstractList<VideoData> {
+    public enum Order {
+        TITLE, NEWEST_FIRST, MOST_VIEWED
+    }
+
+    private static class Entry {
+        final VideoData video;
+        final CollationKey titleKey;
+
+        Entry(VideoData video, CollationKey titleKey) {
+            this.video = video;
+            this.titleKey = titleKey;
+        }
+    }
+
+    private final Collator mCollator = Collator.getInstance();
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    private final Map<String, Entry> mEntriesById = new HashMap<String, Entry>();
+    private Order mOrder;
+    private Comparator<Entry> mComparator;
+
+    public SortedVideoList(Order order) {
+        setOrderInternal(order);
+    }
+
+    @Override
+    public VideoData get(int location) {
+        return mEntries.get(location).video;
+    }
+
+    @Override
+    public int size() {
+        return mEntries.size();
+    }
+
+    public Order getOrder() {
+        return mOrder;
+    }
+
+    /**
+     * Sorts the list in the given order.
+     *
+     * @return whether the order changed
+     */
+    public boolean setOrder(Order order) {
+        if (order == mOrder) {
+            return false;
+        }
+        setOrderInternal(order);
+        Collections.sort(mEntries, mComparator);
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Replaces the whole content of the list.
+     */
+    public void setAll(Collection<VideoData> videos) {
+        mEntries.clear();
+        mEntriesById.clear();
+        for (VideoData video : videos) {
+            Entry entry = newEntry(video);
+            if (mEntriesById.put(video.getYouTubeId(), entry) == null) {
+                mEntries.add(entry);
+            }
+        }
+        Collections.sort(mEntries, mComparator);
+        modCount++;
+    }
+
+    /**
+     * Adds the videos at their sorted positions, replacing the videos with the same ids.
+     *
+     * @return the videos that were added or changed; identical videos already in the list are
+     *         left out
+     */
+    public List<VideoData> putAll(Collection<VideoData> videos) {
+        Map<String, Entry> added = new HashMap<String, Entry>();
+        Set<Entry> replaced = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+        for (VideoData video : videos) {
+            Entry old = mEntriesById.get(video.getYouTubeId());
+            if (old != null) {
+                if (old.video.hasSameContent(video)) {
+                    continue;
+                }
+                replaced.add(old);
+            }
+            added.put(video.getYouTubeId(), newEntry(video));
+        }
+        List<VideoData> changed = new ArrayList<VideoData>(added.size());
+        if (added.isEmpty()) {
+            return changed;
+        }
+        List<Entry> page = new ArrayList<Entry>(added.values());
+        Collections.sort(page, mComparator);
+
+        // Merge the sorted page into the list, dropping the entries it replaces.
+        List<Entry> merged = new ArrayList<Entry>(mEntries.size() + page.size());
+        int i = 0;
+        for (Entry entry : page) {
+            while (i < mEntries.size()
+                    && mComparator.compare(mEntries.get(i), entry) < 0) {
+                Entry listed = mEntries.get(i++);
+                if (!replaced.contains(listed)) {
+                    merged.add(listed);
+                }
+            }
+            merged.add(entry);
+            mEntriesById.put(entry.video.getYouTubeId(), entry);
+            changed.add(entry.video);
+        }
+        for (; i < mEntries.size(); i++) {
+            Entry listed = mEntries.get(i);
+            if (!replaced.contains(listed)) {
+                merged.add(listed);
+            }
+        }
+        mEntries.clear();
+        mEntries.addAll(merged);
+        modCount++;
+        return changed;
+    }
+
+    /**
+     * Removes the videos whose id isn't in the given set, compacting the list in one pass.
+     *
+     * @return whether any video was removed
+     */
+    public boolean retainIds(Set<String> youtubeIds) {
+        int kept = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (youtubeIds.contains(entry.video.getYouTubeId())) {
+                mEntries.set(kept++, entry);
+            } else {
+                mEntriesById.remove(entry.video.getYouTubeId());
+            }
+        }
+        if (kept == mEntries.size()) {
+            return false;
+        }
+        mEntries.subList(kept, mEntries.size()).clear();
+        modCount++;
+        return true;
+    }
+
+    private Entry newEntry(VideoData video) {
+        return new Entry(video, mCollator.getCollationKey(video.getTitle()));
+    }
+
+    private void setOrderInternal(Order order) {
+        mOrder = order;
+        switch (order) {
+            case NEWEST_FIRST:
+                mComparator = new Comparator<Entry>() {
+                    @Override
+                    public int compare(Entry lhs, Entry rhs) {
+                        int result = compareDescending(lhs.video.getPublishedAt(),
+                                rhs.video.getPublishedAt());
+                        return result != 0 ? result : compareTitles(lhs, rhs);
+                    }
+                };
+                break;
+            case MOST_VIEWED:
+                mComparator = new Comparator<Entry>() {
+                    @Override
+                    public int compare(Entry lhs, Entry rhs) {
+                        int result = compareDescending(lhs.video.getViewCount(),
+                                rhs.video.getViewCount());
+                        return result != 0 ? result : compareTitles(lhs, rhs);
+                    }
+                };
+                break;
+            default:
+                mComparator = new Comparator<Entry>() {
+                    @Override
+                    public int compare(Entry lhs, Entry rhs) {
+                        return compareTitles(lhs, rhs);
+                    }
+                };
+                break;
+        }
+    }
+
+    private static int compareDescending(long lhs, long rhs) {
+        return lhs > rhs ? -1 : (lhs < rhs ? 1 : 0);
+    }
+
+    /**
+     * Orders by title, then by id, so that every video has exactly one position.
+     */
+    private static int compareTitles(Entry lhs, Entry rhs) {
+        int result = lhs.titleKey.compareTo(rhs.titleKey);
+        return result != 0 ? result : lhs.video.getYouTubeId().compareTo(rhs.video.getYouTubeId());
+    }
+}
@@ -14,52 +14,173 @@
 
 package com.google.ytdl.util;
 
+import com.google.api.services.youtube.model.ThumbnailDetails;
 import com.google.api.services.youtube.model.Video;
 import com.google.api.services.youtube.model.VideoSnippet;
+import com.google.api.services.youtube.model.VideoStatistics;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * @author Ibrahim Ulukaya <ulukaya@google.com>
  *         <p/>
  *         Helper class to handle YouTube videos.
+ *         <p/>
+ *         Holds only what the uploads list uses, copied out of the {@link Video} model right after
+ *         the response is parsed, so the model and its snippet can be dropped. Instances are
+ *         immutable and the thumbnail URL is kept as listed, so binding and sorting don't allocate.
  */
-public class VideoData {
-    private Video mVideo;
+public final class VideoData {
+    private final String mYouTubeId;
+    private final String mTitle;
+    /**
+     * The default thumbnail the API lists, null if unknown
+     */
+    private final String mThumbUri;
+    /**
+     * Milliseconds since the epoch, -1 if unknown
+     */
+    private final long mPublishedAt;
+    /**
+     * -1 if unknown
+     */
+    private final long mViewCount;
+    private final List<String> mTags;
+    /**
+     * Built on first use, as only the videos scrolled to need it
+     */
+    private String mWatchUri;
 
-    public void setVideo(Video video) {
-        mVideo = video;
+    public VideoData(String youtubeId, String title, String thumbUri, long publishedAt,
+                     long viewCount, String[] tags) {
+        mYouTubeId = youtubeId;
+        mTitle = title == null ? "" : title;
+        mThumbUri = thumbUri;
+        mPublishedAt = publishedAt;
+        mViewCount = viewCount;
+        mTags = tags == null || tags.length == 0 ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(Arrays.asList(tags.clone()));
     }
 
-    public Video getVideo() {
-        return mVideo;
+    /**
+     * @param video a video listed with at least its id and snippet title
+     */
+    public static VideoData fromVideo(Video video) {
+        VideoSnippet snippet = video.getSnippet();
+        VideoStatistics statistics = video.getStatistics();
+        long viewCount = statistics == null || statistics.getViewCount() == null ? -1
+                : statistics.getViewCount().longValue();
+        if (snippet == null) {
+            return new VideoData(video.getId(), null, null, -1, viewCount, null);
+        }
+        List<String> tags = snippet.getTags();
+        ThumbnailDetails thumbnails = snippet.getThumbnails();
+        String thumbUri = thumbnails == null || thumbnails.getDefault() == null ? null
+                : thumbnails.getDefault().getUrl();
+        return new VideoData(video.getId(), snippet.getTitle(), thumbUri,
+                snippet.getPublishedAt() == null ? -1 : snippet.getPublishedAt().getValue(),
+                viewCount, tags == null ? null : tags.toArray(new String[tags.size()]));
     }
 
     public String getYouTubeId() {
-        return mVideo.getId();
+        return mYouTubeId;
     }
 
     public String getTitle() {
-        return mVideo.getSnippet().getTitle();
+        return mTitle;
     }
 
-    public VideoSnippet addTags(Collection<? extends String> tags) {
-        VideoSnippet mSnippet = mVideo.getSnippet();
-        List<String> mTags = mSnippet.getTags();
-        if (mTags == null) {
-            mTags = new ArrayList<String>(2);
-        }
-        mTags.addAll(tags);
-        return mSnippet;
+    /**
+     * @return publishing time in milliseconds since the epoch, -1 if unknown
+     */
+    public long getPublishedAt() {
+        return mPublishedAt;
+    }
+
+    /**
+     * @return number of views, -1 if unknown
+     */
+    public long getViewCount() {
+        return mViewCount;
     }
 
+    /**
+     * @return the tags of the video, including the keywords YouTube Direct Lite tags submissions
+     *         with; unmodifiable
+     */
+    public List<String> getTags() {
+        return mTags;
+    }
+
+    /**
+     * @return URL of the default thumbnail, sized for the grid, or null if unknown
+     */
     public String getThumbUri() {
-        return mVideo.getSnippet().getThumbnails().getDefault().getUrl();
+        return mThumbUri;
+    }
+
+    /**
+     * @return whether the other video has the same id and the same fields as this one. Doesn't
+     *         allocate, as it is called on every bind of a grid cell.
+     */
+    public boolean hasSameContent(VideoData other) {
+        return mYouTubeId.equals(other.mYouTubeId) && mTitle.equals(other.mTitle)
+                && (mThumbUri == null ? other.mThumbUri == null : mThumbUri.equals(other.mThumbUri))
+                && mPublishedAt == other.mPublishedAt && mViewCount == other.mViewCount
+                && hasSameTags(other);
+    }
+
+    private boolean hasSameTags(VideoData other) {
+        if (mTags.size() != other.mTags.size()) {
+            return false;
+        }
+        // Indexed, List.equals would allocate iterators
+        for (int i = 0; i < mTags.size(); i++) {
+            if (!mTags.get(i).equals(other.mTags.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(mYouTubeId);
+        out.writeUTF(mTitle);
+        out.writeUTF(mThumbUri == null ? "" : mThumbUri);
+        out.writeLong(mPublishedAt);
+        out.writeLong(mViewCount);
+        out.writeInt(mTags.size());
+        for (String tag : mTags) {
+            out.writeUTF(tag);
+        }
+    }
+
+    /**
+     * Reads a video written by {@link #writeTo(DataOutput)}.
+     */
+    public static VideoData readFrom(DataInput in) throws IOException {
+        String youtubeId = in.readUTF();
+        String title = in.readUTF();
+        String thumbUri = in.readUTF();
+        long publishedAt = in.readLong();
+        long viewCount = in.readLong();
+        String[] tags = new String[in.readInt()];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = in.readUTF();
+        }
+        return new VideoData(youtubeId, title, thumbUri.length() == 0 ? null : thumbUri,
+                publishedAt, viewCount, tags);
     }
 
     public String getWatchUri() {
-        return "http://www.youtube.com/watch?v=" + getYouTubeId();
+        if (mWatchUri == null) {
+            mWatchUri = "http://www.youtube.com/watch?v=" + mYouTubeId;
+        }
+        return mWatchUri;
     }
 }
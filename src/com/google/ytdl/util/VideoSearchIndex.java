@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory search index over the titles and tags of the loaded videos, updated one video
+ * at a time as pages arrive.
+ * <p/>
+ * Titles and tags are split into words, which are lower cased and stripped of accents.
+ * Words are kept in a sorted map, so all words starting with a prefix are found with one
+ * range lookup. A query matches the videos that have, for each of its words, a word starting
+ * with it.
+ */
+public class VideoSearchIndex {
+    /**
+     * Ids of the videos containing each word
+     */
+    private final TreeMap<String, Set<String>> mPostings = new TreeMap<String, Set<String>>();
+    /**
+     * Words of each indexed video, to remove them again
+     */
+    private final Map<String, String[]> mWords = new HashMap<String, String[]>();
+
+    /**
+     * Indexes the video, replacing the video with the same id if there is one.
+     */
+    public void put(VideoData video) {
+        remove(video.getYouTubeId());
+        Set<String> words = new HashSet<String>();
+        tokenize(video.getTitle(), words);
+        for (String tag : video.getTags()) {
+            tokenize(tag, words);
+        }
+        for (String word : words) {
+            Set<String> ids = mPostings.get(word);
+            if (ids == null) {
+                ids = new HashSet<String>();
+                mPostings.put(word, ids);
+            }
+            ids.add(video.getYouTubeId());
+        }
+        mWords.put(video.getYouTubeId(), words.toArray(new String[words.size()]));
+    }
+
+    public void putAll(Collection<VideoData> videos) {
+        for (VideoData video : videos) {
+            put(video);
+        }
+    }
+
+    public void remove(String youtubeId) {
+        String[] words = mWords.remove(youtubeId);
+        if (words == null) {
+            return;
+        }
+        for (String word : words) {
+            Set<String> ids = mPostings.get(word);
+            ids.remove(youtubeId);
+            if (ids.isEmpty()) {
+                mPostings.remove(word);
+            }
+        }
+    }
+
+    /**
+     * Removes the videos whose id isn't in the given set.
+     */
+    public void retainIds(Set<String> youtubeIds) {
+        Iterator<String> it = new ArrayList<String>(mWords.keySet()).iterator();
+        while (it.hasNext()) {
+            String youtubeId = it.next();
+            if (!youtubeIds.contains(youtubeId)) {
+                remove(youtubeId);
+            }
+        }
+    }
+
+    public void clear() {
+        mPostings.clear();
+        mWords.clear();
+    }
+
+    /**
+     * @return ids of the videos matching every word of the query, or null if the query has no
+     *         words and so matches everything
+     */
+    public Set<String> search(String query) {
+        List<String> prefixes = new ArrayList<String>();
+        tokenize(query, prefixes);
+        if (prefixes.isEmpty()) {
+            return null;
+        }
+        Set<String> result = null;
+        for (String prefix : prefixes) {
+            Set<String> matches = new HashSet<String>();
+            SortedMap<String, Set<String>> range = mPostings.subMap(prefix, prefix + '\uffff');
+            for (Set<String> ids : range.values()) {
+                if (result == null) {
+                    matches.addAll(ids);
+                } else {
+                    // Only keep what earlier words matched
+                    for (String id : ids) {
+                        if (result.contains(id)) {
+                            matches.add(id);
+                        }
+                    }
+                }
+            }
+            result = matches;
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the normalized words of the text to the given collection.
+     */
+    private static void tokenize(String text, Collection<String> words) {
+        if (text == null) {
+            return;
+        }
+        String normalized = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length()
+                    && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Lower cases the text and strips accents, so accented words are found by their
+     * unaccented spelling.
+     */
+    private static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.getDefault()),
+                Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
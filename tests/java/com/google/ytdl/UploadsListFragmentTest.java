@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytdl;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.GridView;
+
+import com.google.android.gms.plus.PlusClient;
+import com.google.ytdl.util.ImageWorker;
+import com.google.ytdl.util.VideoData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the binding of the uploads grid cells.
+ */
+public class UploadsListFragmentTest extends AndroidTestCase {
+    private static final int VIDEO_COUNT = 20;
+
+    private UploadsListFragment mFragment;
+    private UploadsListFragment.UploadedVideoAdapter mAdapter;
+    private GridView mGrid;
+    private View[] mCells;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFragment = new UploadsListFragment();
+        // Thumbnails aren't the subject here, load none
+        mFragment.mImageFetcher = new ImageWorker(getContext()) {
+            @Override
+            protected Bitmap processBitmap(Object data) {
+                return null;
+            }
+        };
+        // Never connected, so the +1 buttons stay waiting for their initialization
+        mFragment.mPlusClient = new PlusClient.Builder(getContext(), mFragment, mFragment)
+                .build();
+        mGrid = new GridView(new ContextThemeWrapper(getContext(),
+                android.R.style.Theme_Holo_Light));
+        mFragment.mGridView = mGrid;
+        mAdapter = mFragment.new UploadedVideoAdapter();
+        List<VideoData> videos = new ArrayList<VideoData>();
+        for (int i = 0; i < VIDEO_COUNT; i++) {
+            videos.add(new VideoData("video" + i, "Video " + i,
+                    "https://i.ytimg.com/vi/video" + i + "/default.jpg", i, i * 10,
+                    new String[]{Constants.DEFAULT_KEYWORD, "tag" + i}));
+        }
+        mAdapter.update(videos);
+        mGrid.setAdapter(mAdapter);
+
+        mCells = new View[VIDEO_COUNT];
+        for (int i = 0; i < VIDEO_COUNT; i++) {
+            mCells[i] = mAdapter.getView(i, null, mGrid);
+        }
+    }
+
+    public void testRebindingCellsWithPendingPlusButtonsDoesNotAllocate() {
+        // The first binding scheduled the initialization of the +1 buttons, which doesn't run
+        // here; binding again must not schedule it once more.
+        assertEquals("Objects allocated binding unchanged cells", 0, countRebindAllocations());
+    }
+
+    public void testRebindingCellsWithInitializedPlusButtonsDoesNotAllocate() {
+        for (View cell : mCells) {
+            UploadsListFragment.ViewHolder holder = (UploadsListFragment.ViewHolder) cell.getTag();
+            // What initPlusButton() records, for a client that never reconnected
+            holder.plusVideoId = holder.video.getYouTubeId();
+            holder.plusGeneration = 0;
+        }
+
+        assertEquals("Objects allocated binding unchanged cells", 0, countRebindAllocations());
+    }
+
+    /**
+     * @return objects allocated binding every cell again to the video it shows
+     */
+    private int countRebindAllocations() {
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < VIDEO_COUNT; i++) {
+            assertSame(mCells[i], mAdapter.getView(i, mCells[i], mGrid));
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        return allocations;
+    }
+}